@@ -0,0 +1,339 @@
+package abdulghani.tariq.lox;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * End to end runs of the programs in bench/corpus, gated against bench/corpus/baseline.json.
+ * Every program is scanned, parsed, resolved and interpreted warmup + runs times in this
+ * JVM, the measured runs record median wall time, bytes allocated by this thread per run
+ * and the number of collections. A program whose time or allocation grew by more than the
+ * threshold over the baseline fails the run with exit code 1.
+ * The baseline is machine specific, regenerate it with --update on the machine that gates.
+ *
+ * java -cp target/benchmarks.jar abdulghani.tariq.lox.CorpusRunner
+ *     [--corpus dir] [--baseline file] [--runs n] [--warmup n]
+ *     [--time-threshold 0.20] [--alloc-threshold 0.10] [--update]
+ */
+public class CorpusRunner {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static class Result {
+        final double wallMillis; // median of the measured runs
+        final long allocatedBytes; // mean per run
+        final long gcCount; // over all measured runs
+
+        Result(double wallMillis, long allocatedBytes, long gcCount) {
+            this.wallMillis = wallMillis;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path corpus = Paths.get("bench/corpus");
+        Path baseline = null;
+        int runs = 20;
+        int warmup = 20;
+        double timeThreshold = 0.20;
+        double allocThreshold = 0.10;
+        boolean update = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--corpus": corpus = Paths.get(args[++i]); break;
+                case "--baseline": baseline = Paths.get(args[++i]); break;
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--time-threshold": timeThreshold = Double.parseDouble(args[++i]); break;
+                case "--alloc-threshold": allocThreshold = Double.parseDouble(args[++i]); break;
+                case "--update": update = true; break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(64);
+            }
+        }
+        if (baseline == null) baseline = corpus.resolve("baseline.json");
+
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (Path program : programs(corpus)) {
+            String source = new String(Files.readAllBytes(program), StandardCharsets.UTF_8);
+            results.put(program.getFileName().toString(), measure(source, warmup, runs));
+        }
+
+        if (update) {
+            Files.write(baseline, toJson(runs, results).getBytes(StandardCharsets.UTF_8));
+            print(results, null);
+            System.out.println("Baseline written to " + baseline);
+            return;
+        }
+
+        Map<String, Result> expected = Files.exists(baseline)
+                ? fromJson(new String(Files.readAllBytes(baseline), StandardCharsets.UTF_8))
+                : new LinkedHashMap<>();
+        print(results, expected);
+
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            Result before = expected.get(entry.getKey());
+            if (before == null) continue; // new program, nothing to compare with yet
+            Result after = entry.getValue();
+            if (after.wallMillis > before.wallMillis * (1 + timeThreshold)) {
+                regressions.add(String.format(Locale.ROOT, "%s wall time %.2f ms -> %.2f ms",
+                        entry.getKey(), before.wallMillis, after.wallMillis));
+            }
+            if (after.allocatedBytes > before.allocatedBytes * (1 + allocThreshold)) {
+                regressions.add(String.format(Locale.ROOT, "%s allocation %d B -> %d B",
+                        entry.getKey(), before.allocatedBytes, after.allocatedBytes));
+            }
+        }
+
+        if (!regressions.isEmpty()) {
+            for (String regression : regressions) {
+                System.err.println("Regression: " + regression);
+            }
+            System.exit(1);
+        }
+    }
+
+    private static List<Path> programs(Path corpus) throws IOException {
+        List<Path> programs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(corpus, "*.lox")) {
+            for (Path file : files) programs.add(file);
+        }
+        programs.sort(null);
+        return programs;
+    }
+
+    static Result measure(String source, int warmup, int runs) {
+        for (int i = 0; i < warmup; i++) {
+            run(source);
+        }
+
+        long thread = Thread.currentThread().getId();
+        double[] millis = new double[runs];
+        long allocated = 0;
+        long collections = gcCount();
+
+        for (int i = 0; i < runs; i++) {
+            long bytes = THREADS.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            run(source);
+            millis[i] = (System.nanoTime() - start) / 1e6;
+            allocated += THREADS.getThreadAllocatedBytes(thread) - bytes;
+        }
+
+        Arrays.sort(millis);
+        return new Result(millis[runs / 2], allocated / runs, gcCount() - collections);
+    }
+
+    // the whole pipeline with a fresh interpreter, output is encoded and discarded
+    private static void run(String source) {
+        Workloads.interpreter().interpret(Workloads.compile(source));
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static void print(Map<String, Result> results, Map<String, Result> baseline) {
+        System.out.printf(Locale.ROOT, "%-16s %12s %10s %16s %10s %6s%n",
+                "program", "wall ms", "change", "alloc B/run", "change", "gcs");
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            Result result = entry.getValue();
+            Result before = baseline == null ? null : baseline.get(entry.getKey());
+            System.out.printf(Locale.ROOT, "%-16s %12.2f %10s %16d %10s %6d%n",
+                    entry.getKey(),
+                    result.wallMillis, before == null ? "" : change(before.wallMillis, result.wallMillis),
+                    result.allocatedBytes, before == null ? "" : change(before.allocatedBytes, result.allocatedBytes),
+                    result.gcCount);
+        }
+    }
+
+    private static String change(double before, double after) {
+        return String.format(Locale.ROOT, "%+.1f%%", (after - before) / before * 100);
+    }
+
+    // baseline.json
+    static String toJson(int runs, Map<String, Result> results) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"runs\": ").append(runs).append(",\n  \"programs\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            Result result = entry.getValue();
+            json.append(separator)
+                    .append("    \"").append(entry.getKey()).append("\": {")
+                    .append("\"wallMillis\": ").append(String.format(Locale.ROOT, "%.3f", result.wallMillis))
+                    .append(", \"allocatedBytes\": ").append(result.allocatedBytes)
+                    .append(", \"gcCount\": ").append(result.gcCount)
+                    .append('}');
+            separator = ",\n";
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Result> fromJson(String text) {
+        Map<String, Object> root = (Map<String, Object>) new Json(text).parse();
+        Map<String, Result> results = new LinkedHashMap<>();
+        Map<String, Object> programs = (Map<String, Object>) root.get("programs");
+        for (Map.Entry<String, Object> entry : programs.entrySet()) {
+            Map<String, Object> result = (Map<String, Object>) entry.getValue();
+            results.put(entry.getKey(), new Result(
+                    (double) result.get("wallMillis"),
+                    (long) (double) result.get("allocatedBytes"),
+                    (long) (double) result.get("gcCount")));
+        }
+        return results;
+    }
+
+    /**
+     * Just enough JSON for the baseline file: objects, arrays, strings without unicode
+     * escapes, numbers as doubles, true, false and null.
+     */
+    private static class Json {
+        private final String text;
+        private int current = 0;
+
+        Json(String text) {
+            this.text = text;
+        }
+
+        Object parse() {
+            Object value = value();
+            skipSpace();
+            if (current != text.length()) throw error("Unexpected trailing text");
+            return value;
+        }
+
+        private Object value() {
+            skipSpace();
+            if (current >= text.length()) throw error("Unexpected end");
+            char c = text.charAt(current);
+            switch (c) {
+                case '{': return object();
+                case '[': return array();
+                case '"': return string();
+                case 't': return literal("true", Boolean.TRUE);
+                case 'f': return literal("false", Boolean.FALSE);
+                case 'n': return literal("null", null);
+                default: return number();
+            }
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            expect('{');
+            skipSpace();
+            if (peek() == '}') {
+                current++;
+                return object;
+            }
+            do {
+                skipSpace();
+                String key = string();
+                skipSpace();
+                expect(':');
+                object.put(key, value());
+                skipSpace();
+            } while (match(','));
+            expect('}');
+            return object;
+        }
+
+        private List<Object> array() {
+            List<Object> array = new ArrayList<>();
+            expect('[');
+            skipSpace();
+            if (peek() == ']') {
+                current++;
+                return array;
+            }
+            do {
+                array.add(value());
+                skipSpace();
+            } while (match(','));
+            expect(']');
+            return array;
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder string = new StringBuilder();
+            while (peek() != '"') {
+                char c = text.charAt(current++);
+                if (c == '\\') {
+                    char escaped = text.charAt(current++);
+                    switch (escaped) {
+                        case 'n': string.append('\n'); break;
+                        case 't': string.append('\t'); break;
+                        case '"': case '\\': case '/': string.append(escaped); break;
+                        default: throw error("Unsupported escape \\" + escaped);
+                    }
+                } else {
+                    string.append(c);
+                }
+            }
+            current++;
+            return string.toString();
+        }
+
+        private Object literal(String word, Object value) {
+            if (!text.startsWith(word, current)) throw error("Expected " + word);
+            current += word.length();
+            return value;
+        }
+
+        private Double number() {
+            int start = current;
+            while (current < text.length() && "+-.eE0123456789".indexOf(text.charAt(current)) >= 0) {
+                current++;
+            }
+            if (start == current) throw error("Unexpected character");
+            return Double.parseDouble(text.substring(start, current));
+        }
+
+        private void skipSpace() {
+            while (current < text.length() && Character.isWhitespace(text.charAt(current))) current++;
+        }
+
+        private char peek() {
+            if (current >= text.length()) throw error("Unexpected end");
+            return text.charAt(current);
+        }
+
+        private boolean match(char c) {
+            if (current < text.length() && text.charAt(current) == c) {
+                current++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!match(c)) throw error("Expected '" + c + "'");
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + current + " of baseline.");
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package abdulghani.tariq.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of fuel metering and yield points on the loop heavy workloads of InterpreterBenchmark.
+ * off has no limits, fuel has a budget that never runs out, checked adds a yield point that
+ * is reached every ScriptScheduler.CHECK_INTERVAL statements and back-edges, the most
+ * checkpoints a scheduled script goes through. Compare the scores with off.
+ * java -jar target/benchmarks.jar FuelBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FuelBenchmark {
+
+    @Param({"countingLoop", "localCountingLoop", "nestedBlocks"})
+    public String workload;
+
+    @Param({"off", "fuel", "checked"})
+    public String metering;
+
+    private List<Stmt> statements;
+    private Interpreter interpreter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        statements = Workloads.compile(InterpreterBenchmark.source(workload));
+        interpreter = Workloads.interpreter();
+        long budget = Long.MAX_VALUE / 2; // never runs out during a trial
+        switch (metering) {
+            case "off": interpreter.limits(null, Interpreter.UNLIMITED); break;
+            case "fuel": interpreter.limits(null, budget); break;
+            case "checked": interpreter.limits(() -> ScriptScheduler.CHECK_INTERVAL, budget); break;
+            default: throw new IllegalArgumentException("Unknown metering " + metering + ".");
+        }
+    }
+
+    @Benchmark
+    public void interpret() {
+        interpreter.interpret(statements);
+    }
+}
@@ -0,0 +1,86 @@
+package abdulghani.tariq.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpreter.interpret on canonical workloads, each one is scanned, parsed and resolved
+ * once, every invocation runs it from the start.
+ * java -jar target/benchmarks.jar InterpreterBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InterpreterBenchmark {
+
+    private static final String COUNTING_LOOP =
+            "var i = 0;\n" +
+            "while (i < 10000) { i = i + 1; }\n";
+
+    private static final String LOCAL_COUNTING_LOOP =
+            "{\n" +
+            "    var i = 0; var sum = 0;\n" +
+            "    while (i < 10000) { sum = sum + i; i = i + 1; }\n" +
+            "}\n";
+
+    // a block is entered and left on every iteration
+    private static final String NESTED_BLOCKS =
+            "{\n" +
+            "    var i = 0;\n" +
+            "    while (i < 1000) {\n" +
+            "        var a = i; { var b = a; { var c = b; { var d = c; { var e = d; } } } }\n" +
+            "        i = i + 1;\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final String STRING_CONCAT =
+            "{\n" +
+            "    var s = \"\"; var i = 0;\n" +
+            "    while (i < 1000) { s = s + \"x\"; i = i + 1; }\n" +
+            "    print s;\n" +
+            "}\n";
+
+    @Param({"countingLoop", "localCountingLoop", "nestedBlocks", "stringConcat", "deepScopes"})
+    public String workload;
+
+    private List<Stmt> statements;
+    private Interpreter interpreter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        statements = Workloads.compile(source(workload));
+        interpreter = Workloads.interpreter();
+    }
+
+    static String source(String workload) {
+        switch (workload) {
+            case "countingLoop": return COUNTING_LOOP;
+            case "localCountingLoop": return LOCAL_COUNTING_LOOP;
+            case "nestedBlocks": return NESTED_BLOCKS;
+            case "stringConcat": return STRING_CONCAT;
+            case "deepScopes": return ScopeDepthBenchmark.script("local", 16);
+        }
+        throw new IllegalArgumentException("Unknown workload " + workload + ".");
+    }
+
+    @Benchmark
+    public void interpret() {
+        interpreter.interpret(statements);
+    }
+}
@@ -0,0 +1,50 @@
+package abdulghani.tariq.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+
+/**
+ * Parser throughput on the generated corpus, the tokens are scanned once up front.
+ * java -jar target/benchmarks.jar ParserBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    @Param({"1000", "50000"})
+    public int units;
+
+    private TokenBuffer tokens;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tokens = new Scanner(Workloads.corpus(units)).scan();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens).parse();
+    }
+
+    // parse plus the passes that run before every execution
+    @Benchmark
+    public List<Stmt> parseOptimizeResolve() {
+        List<Stmt> statements = new Optimizer().optimize(new Parser(tokens).parse());
+        new Resolver().resolve(statements);
+        return statements;
+    }
+}
@@ -0,0 +1,59 @@
+package abdulghani.tariq.lox;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+
+/**
+ * Scanner throughput on the generated corpus.
+ * Besides ops/s the bytes counter reports source chars scanned per second, the number the
+ * Scanner's 150 MB/s target refers to.
+ * java -jar target/benchmarks.jar ScannerBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScannerBenchmark {
+
+    @Param({"1000", "50000"})
+    public int units;
+
+    private String source;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = Workloads.corpus(units);
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Benchmark
+    public TokenBuffer scan(Bytes counter) {
+        counter.bytes += source.length();
+        return new Scanner(source).scan();
+    }
+
+    // materializes every Token, what the scanner cost before the offset based buffer
+    @Benchmark
+    public List<Token> scanTokens(Bytes counter) {
+        counter.bytes += source.length();
+        return new Scanner(source).scanTokens();
+    }
+}
@@ -0,0 +1,71 @@
+package abdulghani.tariq.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Variable lookups from a loop nested depth blocks below the declaration. A local is found
+ * by walking depth frames, a global goes to the globals Environment whatever the depth.
+ * java -jar target/benchmarks.jar ScopeDepthBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScopeDepthBenchmark {
+
+    @Param({"local", "global"})
+    public String kind;
+
+    @Param({"0", "1", "4", "16", "64"})
+    public int depth;
+
+    private List<Stmt> statements;
+    private Interpreter interpreter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        statements = Workloads.compile(script(kind, depth));
+        interpreter = Workloads.interpreter();
+    }
+
+    /**
+     * Declares v, opens depth blocks that each declare a variable of their own and reads
+     * and writes v 10000 times from the innermost one.
+     */
+    static String script(String kind, int depth) {
+        StringBuilder source = new StringBuilder();
+        if (kind.equals("local")) source.append("{\n");
+        source.append("var v = 0;\n");
+        for (int i = 0; i < depth; i++) {
+            source.append("{ var d").append(i).append(" = ").append(i).append(";\n");
+        }
+        source.append("var i = 0;\n")
+                .append("while (i < 10000) { v = v + 1; i = i + 1; }\n");
+        for (int i = 0; i < depth; i++) {
+            source.append("}\n");
+        }
+        if (kind.equals("local")) source.append("}\n");
+        return source.toString();
+    }
+
+    @Benchmark
+    public void lookup() {
+        interpreter.interpret(statements);
+    }
+}
@@ -0,0 +1,65 @@
+package abdulghani.tariq.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Writer;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+/**
+ * JSR-223 eval of the same small script over and over from several threads, with the
+ * compiled script cache and without it (cacheSize 0 scans and parses on every eval).
+ * java -jar target/benchmarks.jar ScriptEngineBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ScriptEngineBenchmark {
+
+    @Param({"0", "512"})
+    public int cacheSize;
+
+    private LoxScriptEngineFactory factory;
+    private String source;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        factory = new LoxScriptEngineFactory(cacheSize);
+        source = Workloads.corpus(20);
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+        ScriptEngine engine;
+        ScriptContext context;
+
+        @Setup(Level.Trial)
+        public void setUp(ScriptEngineBenchmark benchmark) {
+            engine = benchmark.factory.getScriptEngine();
+            context = new SimpleScriptContext();
+            context.setWriter(Writer.nullWriter());
+            context.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+        }
+    }
+
+    @Benchmark
+    public Object eval(Caller caller) throws ScriptException {
+        return caller.engine.eval(source, caller.context);
+    }
+}
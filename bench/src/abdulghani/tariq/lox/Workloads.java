@@ -0,0 +1,48 @@
+package abdulghani.tariq.lox;
+
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Lox programs and pipeline helpers shared by the benchmarks.
+ */
+final class Workloads {
+    private Workloads() {}
+
+    /**
+     * Deterministic script of the given number of units, every unit mixes declarations,
+     * arithmetic, strings, comments, nested blocks, loops and branches. Pure ASCII.
+     */
+    static String corpus(int units) {
+        StringBuilder source = new StringBuilder(units * 190);
+        for (int i = 0; i < units; i++) {
+            source.append("// unit ").append(i).append('\n')
+                    .append("var a").append(i).append(" = ").append(i).append(" * 2 + 3.5;\n")
+                    .append("var s").append(i).append(" = \"str").append(i).append("\" + \"ing\";\n")
+                    .append("{\n")
+                    .append("    var x = (a").append(i).append(" - 1) / 2;\n")
+                    .append("    while (x > 0) { x = x - 1; }\n")
+                    .append("    if (x == 0 and a").append(i).append(" >= 1) print s").append(i)
+                    .append("; else print !nil;\n")
+                    .append("}\n");
+        }
+        return source.toString();
+    }
+
+    /**
+     * Runs the front end the way Lox.run does, the statements are ready to interpret.
+     */
+    static List<Stmt> compile(String source) {
+        TokenBuffer tokens = new Scanner(source).scan();
+        List<Stmt> statements = new Parser(tokens).parse();
+        statements = new Optimizer().optimize(statements);
+        new Resolver().resolve(statements);
+        if (Lox.hadError) throw new IllegalStateException("Benchmark script has errors.");
+        return statements;
+    }
+
+    // prints are encoded and thrown away, their cost stays in the measurement
+    static Interpreter interpreter() {
+        return new Interpreter(new OutputSink(OutputStream.nullOutputStream(), OutputSink.FlushPolicy.THRESHOLD));
+    }
+}
@@ -0,0 +1,691 @@
+package abdulghani.tariq.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On disk cache of optimized and resolved statements, kept in a .loxcache directory next
+ * to the script like __pycache__.
+ * A cache file starts with the format version, a fingerprint of the build and the SHA-256 of
+ * the script bytes, a file whose header doesn't match all three is stale and gets replaced.
+ * The fingerprint hashes the class files of the passes that shape the tree, so a rebuilt
+ * Optimizer or Resolver never gets trees resolved by the old one.
+ * On a hit the file is mapped and decoded straight into the tree, the script is never
+ * scanned or parsed. Scripts with errors are never cached.
+ */
+class AstCache {
+    // bump whenever the encoding below or the information the Resolver records changes
+    static final int FORMAT_VERSION = 4;
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    private static final String DIRECTORY = ".loxcache";
+
+    // node tags
+    private static final byte NULL = 0;
+    private static final byte BLOCK = 1;
+    private static final byte EXPRESSION = 2;
+    private static final byte IF = 3;
+    private static final byte PRINT = 4;
+    private static final byte VAR = 5;
+    private static final byte WHILE = 6;
+    private static final byte FUNCTION = 7;
+    private static final byte RETURN = 8;
+
+    private static final byte ASSIGN = 1;
+    private static final byte BINARY = 2;
+    private static final byte GROUPING = 3;
+    private static final byte LITERAL = 4;
+    private static final byte LOGICAL = 5;
+    private static final byte UNARY = 6;
+    private static final byte VARIABLE = 7;
+    private static final byte CALL = 8;
+
+    // literal value tags
+    private static final byte NIL_VALUE = 0;
+    private static final byte FALSE_VALUE = 1;
+    private static final byte TRUE_VALUE = 2;
+    private static final byte NUMBER_VALUE = 3;
+    private static final byte STRING_VALUE = 4;
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    // classes whose code decides what a cached tree looks like, their nested classes included
+    private static final Class<?>[] FRONT_END = {
+            Scanner.class, Parser.class, Optimizer.class, Resolver.class,
+            Expr.class, Stmt.class, Token.class, TokenType.class, AstCache.class
+    };
+
+    private final Path file;
+    private final byte[] hash;
+
+    private AstCache(Path file, byte[] hash) {
+        this.file = file;
+        this.hash = hash;
+    }
+
+    // computed on first use, once per process
+    private static final class Build {
+        static final byte[] FINGERPRINT = fingerprint();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-256
+        }
+    }
+
+    /**
+     * SHA-256 of the front end's class files, null when a class loader doesn't expose them.
+     */
+    private static byte[] fingerprint() {
+        MessageDigest digest = sha256();
+        try {
+            for (Class<?> type : FRONT_END) {
+                if (!hashClass(digest, type)) return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return digest.digest();
+    }
+
+    private static boolean hashClass(MessageDigest digest, Class<?> type) throws IOException {
+        String name = type.getName();
+        try (InputStream in = type.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            if (in == null) return false;
+            digest.update(in.readAllBytes());
+        }
+        for (Class<?> nested : type.getDeclaredClasses()) {
+            if (!hashClass(digest, nested)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hashes the script, the cache file itself is only touched by load and store.
+     * Returns null when the build can't be fingerprinted, the script then runs uncached.
+     */
+    static AstCache forScript(Path script) throws IOException {
+        if (Build.FINGERPRINT == null) return null;
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(script, StandardOpenOption.READ)) {
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+
+        Path absolute = script.toAbsolutePath();
+        Path file = absolute.resolveSibling(DIRECTORY).resolve(absolute.getFileName() + ".astc");
+        return new AstCache(file, digest.digest());
+    }
+
+    Path file() {
+        return file;
+    }
+
+    /**
+     * Returns the cached statements or null on a miss, a damaged file counts as a miss.
+     */
+    List<Stmt> load() {
+        if (!Files.isRegularFile(file)) return null;
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            return null;
+        }
+
+        try {
+            Reader reader = new Reader(buffer);
+            if (!reader.header(hash)) return null;
+            return reader.statements();
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes to a temporary file and moves it in place, so a concurrent run of the same
+     * script sees the old file or the new one but never half of it.
+     */
+    void store(List<Stmt> statements) throws IOException {
+        Writer writer = new Writer();
+        writer.header(hash);
+        writer.statements(statements);
+
+        Files.createDirectories(file.getParent());
+        Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream stream = Files.newOutputStream(temporary)) {
+                writer.bytes.writeTo(stream);
+            }
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Encodes the tree, ints are unsigned varints and strings go through a table so every
+     * distinct name is written once.
+     */
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        void header(byte[] hash) {
+            writeInt(MAGIC);
+            writeInt(FORMAT_VERSION);
+            bytes.write(Build.FINGERPRINT, 0, Build.FINGERPRINT.length);
+            bytes.write(hash, 0, hash.length);
+        }
+
+        void statements(List<Stmt> statements) {
+            writeVarint(statements.size());
+            for (Stmt statement : statements) {
+                write(statement);
+            }
+        }
+
+        private void write(Stmt stmt) {
+            if (stmt == null) {
+                bytes.write(NULL);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        // every statement starts with its tag and line
+        private void tag(byte tag, Stmt stmt) {
+            bytes.write(tag);
+            writeVarint(stmt.line);
+        }
+
+        private void write(Expr expr) {
+            if (expr == null) {
+                bytes.write(NULL);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void writeInt(int value) {
+            bytes.write(value >>> 24);
+            bytes.write(value >>> 16);
+            bytes.write(value >>> 8);
+            bytes.write(value);
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7f) != 0) {
+                bytes.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes.write(value);
+        }
+
+        // depth and slot are -1 for globals
+        private void writeIndex(int value) {
+            writeVarint(value + 1);
+        }
+
+        private void writeBoolean(boolean value) {
+            bytes.write(value ? 1 : 0);
+        }
+
+        private void writeInts(int[] values) {
+            writeVarint(values.length);
+            for (int value : values) {
+                writeVarint(value);
+            }
+        }
+
+        private void writeString(String value) {
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeVarint(index);
+                return;
+            }
+            // the next free index announces a new string
+            writeVarint(strings.size());
+            strings.put(value, strings.size());
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            bytes.write(utf8, 0, utf8.length);
+        }
+
+        private void writeToken(Token token) {
+            writeVarint(token.type.ordinal());
+            writeString(token.lexeme);
+            writeVarint(token.line);
+            // tokens in the tree only carry the lexeme of names and keywords as literal
+            if (token.literal == null) {
+                bytes.write(0);
+            } else if (token.literal.equals(token.lexeme)) {
+                bytes.write(1);
+            } else {
+                throw new IllegalArgumentException("Can't cache token " + token + ".");
+            }
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            bytes.write(ASSIGN);
+            writeToken(expr.name);
+            writeIndex(expr.depth);
+            writeIndex(expr.slot);
+            writeBoolean(expr.cell);
+            write(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            bytes.write(BINARY);
+            write(expr.left);
+            writeToken(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            bytes.write(GROUPING);
+            write(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            bytes.write(LITERAL);
+            Object value = expr.value;
+            if (value == null) {
+                bytes.write(NIL_VALUE);
+            } else if (value instanceof Boolean) {
+                bytes.write((boolean) value ? TRUE_VALUE : FALSE_VALUE);
+            } else if (value instanceof Double) {
+                bytes.write(NUMBER_VALUE);
+                long bits = Double.doubleToRawLongBits((double) value);
+                writeInt((int) (bits >>> 32));
+                writeInt((int) bits);
+            } else if (Values.isString(value)) {
+                bytes.write(STRING_VALUE);
+                writeString(value.toString());
+            } else {
+                throw new IllegalArgumentException("Can't cache literal " + value + ".");
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            bytes.write(LOGICAL);
+            write(expr.left);
+            writeToken(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            bytes.write(UNARY);
+            writeToken(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            bytes.write(CALL);
+            write(expr.callee);
+            writeToken(expr.paren);
+            writeVarint(expr.arguments.size());
+            for (Expr argument : expr.arguments) {
+                write(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            bytes.write(VARIABLE);
+            writeToken(expr.name);
+            writeIndex(expr.depth);
+            writeIndex(expr.slot);
+            writeBoolean(expr.cell);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tag(BLOCK, stmt);
+            writeVarint(stmt.slotCount);
+            statements(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            tag(EXPRESSION, stmt);
+            write(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            tag(FUNCTION, stmt);
+            writeToken(stmt.name);
+            writeIndex(stmt.slot);
+            writeVarint(stmt.slotCount);
+            writeBoolean(stmt.cell);
+            writeInts(stmt.captureDepths);
+            writeInts(stmt.captureSlots);
+            writeInts(stmt.cellParams);
+            writeVarint(stmt.params.size());
+            for (Token param : stmt.params) {
+                writeToken(param);
+            }
+            statements(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            tag(RETURN, stmt);
+            writeToken(stmt.keyword);
+            write(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tag(IF, stmt);
+            write(stmt.condition);
+            write(stmt.thenBranch);
+            write(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            tag(PRINT, stmt);
+            write(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            tag(VAR, stmt);
+            writeToken(stmt.name);
+            writeIndex(stmt.slot);
+            writeBoolean(stmt.cell);
+            write(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tag(WHILE, stmt);
+            write(stmt.condition);
+            write(stmt.body);
+            return null;
+        }
+    }
+
+    /**
+     * Decodes what the Writer wrote, straight from the mapped file.
+     */
+    private static class Reader {
+        private final ByteBuffer buffer;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        boolean header(byte[] hash) {
+            if (buffer.getInt() != MAGIC) return false;
+            if (buffer.getInt() != FORMAT_VERSION) return false;
+
+            byte[] build = new byte[Build.FINGERPRINT.length];
+            buffer.get(build);
+            if (!Arrays.equals(build, Build.FINGERPRINT)) return false;
+
+            byte[] cached = new byte[hash.length];
+            buffer.get(cached);
+            return Arrays.equals(cached, hash);
+        }
+
+        List<Stmt> statements() {
+            int count = readLength();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(readStmt());
+            }
+            return statements;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+        /**
+         * A count or a byte length, every element takes at least one byte so anything beyond
+         * what is left of the file is damage, caught before it sizes an allocation.
+         */
+        private int readLength() {
+            int length = readVarint();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalArgumentException("Bad length " + length + ".");
+            }
+            return length;
+        }
+
+        private int readIndex() {
+            return readVarint() - 1;
+        }
+
+        private boolean readBoolean() {
+            return buffer.get() == 1;
+        }
+
+        private int[] readInts() {
+            int count = readLength();
+            if (count == 0) return Stmt.NONE;
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = readVarint();
+            }
+            return values;
+        }
+
+        private String readString() {
+            int index = readVarint();
+            if (index < strings.size()) return strings.get(index);
+
+            byte[] utf8 = new byte[readLength()];
+            buffer.get(utf8);
+            String value = new String(utf8, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+
+        private Token readToken() {
+            TokenType type = TOKEN_TYPES[readVarint()];
+            String lexeme = readString();
+            int line = readVarint();
+            Object literal = buffer.get() == 1 ? lexeme : null;
+            return new Token(type, lexeme, literal, line);
+        }
+
+        private Stmt readStmt() {
+            byte tag = buffer.get();
+            if (tag == NULL) return null;
+
+            int line = readVarint();
+            Stmt stmt;
+            switch (tag) {
+                case BLOCK: {
+                    int slotCount = readLength();
+                    Stmt.Block block = new Stmt.Block(statements());
+                    block.slotCount = slotCount;
+                    stmt = block;
+                    break;
+                }
+                case EXPRESSION:
+                    stmt = new Stmt.Expression(readExpr());
+                    break;
+                case IF: {
+                    Expr condition = readExpr();
+                    Stmt thenBranch = readStmt();
+                    stmt = new Stmt.If(condition, thenBranch, readStmt());
+                    break;
+                }
+                case PRINT:
+                    stmt = new Stmt.Print(readExpr());
+                    break;
+                case VAR: {
+                    Token name = readToken();
+                    int slot = readIndex();
+                    boolean cell = readBoolean();
+                    Stmt.Var var = new Stmt.Var(name, readExpr());
+                    var.slot = slot;
+                    var.cell = cell;
+                    stmt = var;
+                    break;
+                }
+                case WHILE: {
+                    Expr condition = readExpr();
+                    stmt = new Stmt.While(condition, readStmt());
+                    break;
+                }
+                case FUNCTION: {
+                    Token name = readToken();
+                    int slot = readIndex();
+                    int slotCount = readLength();
+                    boolean cell = readBoolean();
+                    int[] captureDepths = readInts();
+                    int[] captureSlots = readInts();
+                    int[] cellParams = readInts();
+                    int count = readLength();
+                    List<Token> params = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        params.add(readToken());
+                    }
+                    Stmt.Function function = new Stmt.Function(name, params, statements());
+                    function.slot = slot;
+                    function.slotCount = slotCount;
+                    function.cell = cell;
+                    function.captureDepths = captureDepths;
+                    function.captureSlots = captureSlots;
+                    function.cellParams = cellParams;
+                    stmt = function;
+                    break;
+                }
+                case RETURN: {
+                    Token keyword = readToken();
+                    stmt = new Stmt.Return(keyword, readExpr());
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown statement tag " + tag + ".");
+            }
+            stmt.line = line;
+            return stmt;
+        }
+
+        private Expr readExpr() {
+            byte tag = buffer.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case ASSIGN: {
+                    Token name = readToken();
+                    int depth = readIndex();
+                    int slot = readIndex();
+                    boolean cell = readBoolean();
+                    Expr.Assign assign = new Expr.Assign(name, readExpr());
+                    assign.depth = depth;
+                    assign.slot = slot;
+                    assign.cell = cell;
+                    return assign;
+                }
+                case BINARY: {
+                    Expr left = readExpr();
+                    Token operator = readToken();
+                    return new Expr.Binary(left, operator, readExpr());
+                }
+                case GROUPING:
+                    return new Expr.Grouping(readExpr());
+                case LITERAL:
+                    return new Expr.Literal(readValue());
+                case LOGICAL: {
+                    Expr left = readExpr();
+                    Token operator = readToken();
+                    return new Expr.Logical(left, operator, readExpr());
+                }
+                case UNARY: {
+                    Token operator = readToken();
+                    return new Expr.Unary(operator, readExpr());
+                }
+                case CALL: {
+                    Expr callee = readExpr();
+                    Token paren = readToken();
+                    int count = readLength();
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        arguments.add(readExpr());
+                    }
+                    return new Expr.Call(callee, paren, arguments);
+                }
+                case VARIABLE: {
+                    Expr.Variable variable = new Expr.Variable(readToken());
+                    variable.depth = readIndex();
+                    variable.slot = readIndex();
+                    variable.cell = readBoolean();
+                    return variable;
+                }
+            }
+            throw new IllegalArgumentException("Unknown expression tag " + tag + ".");
+        }
+
+        private Object readValue() {
+            byte tag = buffer.get();
+            switch (tag) {
+                case NIL_VALUE: return null;
+                case FALSE_VALUE: return false;
+                case TRUE_VALUE: return true;
+                case NUMBER_VALUE: return Double.longBitsToDouble(buffer.getLong());
+                case STRING_VALUE: return readString();
+            }
+            throw new IllegalArgumentException("Unknown literal tag " + tag + ".");
+        }
+    }
+}
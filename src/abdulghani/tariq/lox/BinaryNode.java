@@ -0,0 +1,272 @@
+package abdulghani.tariq.lox;
+
+/**
+ * Self specializing implementation of a binary expression.
+ * Every Expr.Binary starts with {@link #UNINITIALIZED}, the first execution looks at the
+ * operator and the operand types and rewrites the expression's node into a specialized one,
+ * so later executions skip the operator switch. A specialization whose guard fails deoptimizes
+ * into the generic node for good, which keeps a polymorphic site from flipping back and forth.
+ * Nodes hold no state, they are shared by all expressions.
+ * Numeric nodes read their operands with {@link Interpreter#evaluateNumber} and hand their
+ * result back unboxed through {@link Interpreter#number}, only {@link #apply} boxes.
+ */
+abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new Uninitialized();
+
+    private static final BinaryNode ADD_DOUBLES = new AddDoubles();
+    private static final BinaryNode CONCAT_STRINGS = new ConcatStrings();
+    private static final BinaryNode ADD_GENERIC = new AddGeneric();
+    private static final BinaryNode SUBTRACT = new Subtract();
+    private static final BinaryNode MULTIPLY = new Multiply();
+    private static final BinaryNode DIVIDE = new Divide();
+    private static final BinaryNode GREATER = new Greater();
+    private static final BinaryNode GREATER_EQUAL = new GreaterEqual();
+    private static final BinaryNode LESS = new Less();
+    private static final BinaryNode LESS_EQUAL = new LessEqual();
+    private static final BinaryNode EQUAL = new Equal();
+    private static final BinaryNode NOT_EQUAL = new NotEqual();
+
+    Object execute(Interpreter interpreter, Expr.Binary expr) {
+        Object left = interpreter.evaluate(expr.left);
+        Object right = interpreter.evaluate(expr.right);
+        return apply(expr, left, right);
+    }
+
+    abstract Object apply(Expr.Binary expr, Object left, Object right);
+
+    private static Object unboxed(Interpreter interpreter, double value) {
+        interpreter.number = value;
+        return Frame.UNBOXED;
+    }
+
+    // Double.equals semantics without boxing numbers that are unboxed
+    private static boolean isEqual(Interpreter interpreter, Expr.Binary expr) {
+        Object left = interpreter.evaluateRaw(expr.left);
+        double a = interpreter.number;
+        Object right = interpreter.evaluateRaw(expr.right);
+
+        if (left == Frame.UNBOXED && right == Frame.UNBOXED) {
+            return Double.compare(a, interpreter.number) == 0;
+        }
+        if (left == Frame.UNBOXED) left = a;
+        if (right == Frame.UNBOXED) right = interpreter.number;
+        return Values.isEqual(left, right);
+    }
+
+    private static BinaryNode specialize(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case PLUS:
+                if (left instanceof Double && right instanceof Double) return ADD_DOUBLES;
+                if (Values.isString(left) && Values.isString(right)) return CONCAT_STRINGS;
+                return ADD_GENERIC;
+            case MINUS: return SUBTRACT;
+            case STAR: return MULTIPLY;
+            case SLASH: return DIVIDE;
+            case GREATER: return GREATER;
+            case GREATER_EQUAL: return GREATER_EQUAL;
+            case LESS: return LESS;
+            case LESS_EQUAL: return LESS_EQUAL;
+            case EQUAL_EQUAL: return EQUAL;
+            case BANG_EQUAL: return NOT_EQUAL;
+        }
+
+        // Unreachable.
+        return null;
+    }
+
+    private static Object deoptimize(Expr.Binary expr, BinaryNode generic, Object left, Object right) {
+        expr.node = generic;
+        return generic.apply(expr, left, right);
+    }
+
+    private static class Uninitialized extends BinaryNode {
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            BinaryNode node = specialize(expr.operator.type, left, right);
+            expr.node = node;
+            return node.apply(expr, left, right);
+        }
+    }
+
+    private static class AddDoubles extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            Object left = interpreter.evaluateRaw(expr.left);
+            double a = left == Frame.UNBOXED ? interpreter.number : 0;
+            Object right = interpreter.evaluateRaw(expr.right);
+            double b = right == Frame.UNBOXED ? interpreter.number : 0;
+
+            if (left instanceof Double) {
+                a = (double)left;
+                left = Frame.UNBOXED;
+            }
+            if (right instanceof Double) {
+                b = (double)right;
+                right = Frame.UNBOXED;
+            }
+
+            if (left == Frame.UNBOXED && right == Frame.UNBOXED) {
+                return unboxed(interpreter, a + b);
+            }
+            if (left == Frame.UNBOXED) left = a;
+            if (right == Frame.UNBOXED) right = b;
+            return deoptimize(expr, ADD_GENERIC, left, right);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double)left + (double)right;
+            }
+            return deoptimize(expr, ADD_GENERIC, left, right);
+        }
+    }
+
+    private static class ConcatStrings extends BinaryNode {
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            if (Values.isString(left) && Values.isString(right)) {
+                return LoxString.concat(left, right);
+            }
+            return deoptimize(expr, ADD_GENERIC, left, right);
+        }
+    }
+
+    private static class AddGeneric extends BinaryNode {
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                if (Metrics.enabled) Metrics.boxed();
+                return (double)left + (double)right;
+            }
+
+            if (Values.isString(left) && Values.isString(right)) {
+                return LoxString.concat(left, right);
+            }
+
+            return null;
+        }
+    }
+
+    private static class Subtract extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            double left = interpreter.evaluateNumber(expr.left);
+            double right = interpreter.evaluateNumber(expr.right);
+            return unboxed(interpreter, left - right);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return (double)left - (double)right;
+        }
+    }
+
+    private static class Multiply extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            double left = interpreter.evaluateNumber(expr.left);
+            double right = interpreter.evaluateNumber(expr.right);
+            return unboxed(interpreter, left * right);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return (double)left * (double)right;
+        }
+    }
+
+    private static class Divide extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            double left = interpreter.evaluateNumber(expr.left);
+            double right = interpreter.evaluateNumber(expr.right);
+            return unboxed(interpreter, left / right);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return (double)left / (double)right;
+        }
+    }
+
+    private static class Greater extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            double left = interpreter.evaluateNumber(expr.left);
+            double right = interpreter.evaluateNumber(expr.right);
+            return left > right;
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return (double)left > (double)right;
+        }
+    }
+
+    private static class GreaterEqual extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            double left = interpreter.evaluateNumber(expr.left);
+            double right = interpreter.evaluateNumber(expr.right);
+            return left >= right;
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return (double)left >= (double)right;
+        }
+    }
+
+    private static class Less extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            double left = interpreter.evaluateNumber(expr.left);
+            double right = interpreter.evaluateNumber(expr.right);
+            return left < right;
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return (double)left < (double)right;
+        }
+    }
+
+    private static class LessEqual extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            double left = interpreter.evaluateNumber(expr.left);
+            double right = interpreter.evaluateNumber(expr.right);
+            return left <= right;
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return (double)left <= (double)right;
+        }
+    }
+
+    private static class Equal extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return isEqual(interpreter, expr);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return Values.isEqual(left, right);
+        }
+    }
+
+    private static class NotEqual extends BinaryNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return !isEqual(interpreter, expr);
+        }
+
+        @Override
+        Object apply(Expr.Binary expr, Object left, Object right) {
+            return !Values.isEqual(left, right);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package abdulghani.tariq.lox;
+
+/**
+ * Box for a local variable that a closure captures and somebody assigns.
+ * The frame slot of the variable and the captures of every closure using it hold the
+ * same cell, so an assignment on either side is seen by the other. Variables that are
+ * captured but never assigned are copied instead and need no cell, see {@link Resolver}.
+ * Numbers stay unboxed the same way they do in a {@link Frame}.
+ */
+final class Cell {
+    Object value; // Frame.UNBOXED when the value is in number
+    double number;
+
+    Cell(Object value, double number) {
+        this.value = value;
+        this.number = number;
+    }
+
+    void set(Object value, double number) {
+        if (value == Frame.UNBOXED) this.number = number;
+        this.value = value;
+    }
+}
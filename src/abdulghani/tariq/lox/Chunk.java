@@ -0,0 +1,36 @@
+package abdulghani.tariq.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiled form of a program: bytecode, the line each byte came from and a constant pool.
+ * Sizes of the local variable area and the operand stack are computed by the {@link Compiler}
+ * so the {@link VM} never has to grow them.
+ */
+class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+
+    final List<Object> constants = new ArrayList<>();
+
+    int maxLocals = 0;
+    int maxStack = 0;
+
+    void write(byte b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = b;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+}
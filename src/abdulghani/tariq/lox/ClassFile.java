@@ -0,0 +1,169 @@
+package abdulghani.tariq.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal class file writer used by {@link JvmCompiler}: one class with one static method.
+ * Written as version 49 so the verifier infers frames by itself and no StackMapTable is needed.
+ */
+class ClassFile {
+    // opcodes used by the code generator
+    static final int ACONST_NULL = 0x01;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ASTORE = 0x3a;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int GOTO = 0xa7;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int INVOKESTATIC = 0xb8;
+    static final int WIDE = 0xc4;
+
+    private static final int MAJOR_VERSION = 49;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1; // index 0 is reserved
+
+    private final String className;
+
+    byte[] code = new byte[256];
+    int length = 0;
+
+    ClassFile(String className) {
+        this.className = className;
+    }
+
+    // constant pool, entries are shared through a key describing them
+    private int constant(String key, int tag, int a, int b, String utf8) {
+        Integer existing = poolIndex.get(key);
+        if (existing != null) return existing;
+
+        try {
+            poolOut.writeByte(tag);
+            if (utf8 != null) {
+                poolOut.writeUTF(utf8);
+            } else {
+                poolOut.writeShort(a);
+                if (b >= 0) poolOut.writeShort(b);
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e); // in memory stream
+        }
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    int utf8(String value) {
+        return constant("U" + value, 1, 0, 0, value);
+    }
+
+    int classRef(String internalName) {
+        return constant("C" + internalName, 7, utf8(internalName), -1, null);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return constant("N" + name + ":" + descriptor, 12, utf8(name), utf8(descriptor), null);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return constant("M" + owner + "." + name + descriptor, 10,
+                classRef(owner), nameAndType(name, descriptor), null);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return constant("F" + owner + "." + name + descriptor, 9,
+                classRef(owner), nameAndType(name, descriptor), null);
+    }
+
+    // code emitting
+    void emit(int b) {
+        if (length == code.length) code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte) b;
+    }
+
+    void emitShort(int value) {
+        emit(value >> 8);
+        emit(value);
+    }
+
+    void patchShort(int at, int value) {
+        code[at] = (byte) (value >> 8);
+        code[at + 1] = (byte) value;
+    }
+
+    void emitLocal(int opcode, int index) {
+        if (index > 0xff) {
+            emit(WIDE);
+            emit(opcode);
+            emitShort(index);
+        } else {
+            emit(opcode);
+            emit(index);
+        }
+    }
+
+    void emitInt(int value) {
+        if (value <= Byte.MAX_VALUE) {
+            emit(BIPUSH);
+            emit(value);
+        } else {
+            emit(SIPUSH);
+            emitShort(value);
+        }
+    }
+
+    byte[] toBytes(String methodName, String descriptor, int maxStack, int maxLocals) {
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        int name = utf8(methodName);
+        int type = utf8(descriptor);
+        int codeAttribute = utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+
+            out.writeShort(0x0031); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+
+            out.writeShort(1); // methods
+            out.writeShort(0x0009); // public static
+            out.writeShort(name);
+            out.writeShort(type);
+            out.writeShort(1); // attributes
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // code attributes
+
+            out.writeShort(0); // class attributes
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,132 @@
+package abdulghani.tariq.lox;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A script scanned, parsed, optimized and resolved once, for embedding Lox in a Java program.
+ * Compiled scripts are immutable and can be run by any number of threads at the same time,
+ * each run gets its globals, output and error state from its own {@link ExecutionContext}.
+ *
+ * <pre>
+ * CompiledScript rules = CompiledScript.compile(source);
+ * // on every request thread
+ * ExecutionContext context = new ExecutionContext(out);
+ * context.define("amount", 42);
+ * rules.run(context);
+ * Object result = context.get("result");
+ * </pre>
+ *
+ * The only state a run writes into the shared tree is the node of every Expr.Binary, see
+ * {@link BinaryNode}. Nodes are stateless singletons and every one of them is correct for the
+ * expression it is installed in, so threads racing on the rewrite only repeat a specialization.
+ */
+public final class CompiledScript {
+    private final List<Stmt> statements;
+
+    private CompiledScript(List<Stmt> statements) {
+        this.statements = Collections.unmodifiableList(statements);
+    }
+
+    /**
+     * @throws LoxException with every syntax and resolution error of the source
+     */
+    public static CompiledScript compile(String source) {
+        Collector errors = new Collector();
+        List<Stmt> statements = frontEnd(source, errors, null);
+        if (statements == null) {
+            throw new LoxException("Script has " + errors.messages.size() + " error(s).", errors.messages);
+        }
+        return new CompiledScript(statements);
+    }
+
+    /**
+     * Runs the script with the globals and output of the context.
+     * A context runs one script at a time, give every thread its own.
+     *
+     * @throws LoxException when the script fails at runtime, output printed before that is flushed
+     */
+    public void run(ExecutionContext context) {
+        run(context, null);
+    }
+
+    void run(ExecutionContext context, YieldPoint yieldPoint) {
+        context.execute(statements, yieldPoint);
+    }
+
+    List<Stmt> statements() {
+        return statements;
+    }
+
+    /**
+     * Scans, parses, optimizes and resolves, returns null when the reporter saw an error.
+     * The optimizer reports what it did to verbose when that isn't null.
+     */
+    static List<Stmt> frontEnd(CharSequence source, ErrorReporter reporter, PrintStream verbose) {
+        Events.Scan scan = new Events.Scan();
+        scan.begin();
+        Scanner scanner = new Scanner(source, reporter);
+        TokenBuffer tokens = scanner.scan();
+        scan.end();
+        if (scan.shouldCommit()) {
+            scan.tokens = tokens.size();
+            scan.bytes = source instanceof MappedSource
+                    ? ((MappedSource) source).byteLength()
+                    : source.toString().getBytes(StandardCharsets.UTF_8).length;
+            scan.commit();
+        }
+
+        // scan errors don't stop parsing, the parse errors of the same source are reported too
+        Parser parser = new Parser(tokens, reporter);
+
+        Events.Parse parse = new Events.Parse();
+        parse.begin();
+        List<Stmt> statements = parser.parse();
+        parse.statements = statements.size();
+        parse.errors = parser.errorCount();
+        parse.commit();
+        // Stop if there was a syntax error.
+        if (reporter.hadError()) return null;
+
+        Events.Resolve resolve = new Events.Resolve();
+        resolve.begin();
+        Optimizer optimizer = new Optimizer();
+        statements = optimizer.optimize(statements);
+        if (verbose != null) {
+            verbose.println("[optimizer] removed " + optimizer.nodesRemoved() + " nodes.");
+        }
+
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolve(statements);
+        resolve.nodesRemoved = optimizer.nodesRemoved();
+        resolve.failed = reporter.hadError();
+        resolve.commit();
+        // Stop if there was a resolution error.
+        if (reporter.hadError()) return null;
+        return statements;
+    }
+
+    // errors of one compilation, formatted like the command line prints them
+    private static final class Collector implements ErrorReporter {
+        final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void report(int line, String where, String message) {
+            messages.add(ErrorReporter.format(line, where, message));
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+            // nothing runs while compiling
+            throw error;
+        }
+
+        @Override
+        public boolean hadError() {
+            return !messages.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package abdulghani.tariq.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static abdulghani.tariq.lox.OpCode.*;
+
+/**
+ * Compiles resolved statements into a {@link Chunk} for the {@link VM}.
+ * Locals are flattened into one area: every block gets a base offset and the
+ * (depth, slot) pair computed by the Resolver becomes base + slot, so the VM
+ * addresses a local with a single array index.
+ * The VM has no call frames, programs with functions throw {@link Unsupported} and the
+ * caller runs them in the {@link Interpreter}, which shares the VM's globals.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    static class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message);
+        }
+    }
+    private final Chunk chunk = new Chunk();
+
+    // base local index of every enclosing block, innermost last
+    private final List<Integer> blockBases = new ArrayList<>();
+    private int localCount = 0;
+    private int stackDepth = 0;
+    private int line = 1; // line of the last token seen, literals have no token
+
+    Chunk compile(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(RETURN, 0);
+        return chunk;
+    }
+
+    private void compile(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    // emitting utils
+    private void emit(byte op, int stackEffect) {
+        chunk.write(op, line);
+        stackDepth += stackEffect;
+        if (stackDepth > chunk.maxStack) chunk.maxStack = stackDepth;
+    }
+
+    private void emitShort(int value) {
+        chunk.write((byte) ((value >> 8) & 0xff), line);
+        chunk.write((byte) (value & 0xff), line);
+    }
+
+    private void emit(byte op, int operand, int stackEffect) {
+        emit(op, stackEffect);
+        emitShort(operand);
+    }
+
+    private int makeConstant(Object value) {
+        int index = chunk.addConstant(value);
+        if (index > 0xffff) {
+            Lox.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private int emitJump(byte op) {
+        emit(op, 0);
+        emitShort(0xffff);
+        return chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        // -2 to adjust for the bytecode of the jump offset itself
+        int jump = chunk.count - offset - 2;
+        if (jump > 0xffff) {
+            Lox.error(line, "Too much code to jump over.");
+        }
+        chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk.code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(LOOP, 0);
+        int offset = chunk.count - loopStart + 2;
+        if (offset > 0xffff) Lox.error(line, "Loop body too large.");
+        emitShort(offset);
+    }
+
+    private int localIndex(int depth, int slot) {
+        return blockBases.get(blockBases.size() - 1 - depth) + slot;
+    }
+
+    // expressions leave exactly one value on the stack
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        if (expr.depth >= 0) {
+            emit(SET_LOCAL, localIndex(expr.depth, expr.slot), 0);
+        } else {
+            emit(SET_GLOBAL, makeConstant(expr.name), 0);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+
+        switch (expr.operator.type) {
+            case GREATER: emit(OpCode.GREATER, -1); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL, -1); break;
+            case LESS: emit(OpCode.LESS, -1); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL, -1); break;
+            case BANG_EQUAL: emit(NOT_EQUAL, -1); break;
+            case EQUAL_EQUAL: emit(EQUAL, -1); break;
+            case MINUS: emit(SUBTRACT, -1); break;
+            case SLASH: emit(DIVIDE, -1); break;
+            case STAR: emit(MULTIPLY, -1); break;
+            case PLUS: emit(ADD, -1); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(NIL, 1);
+        } else if (expr.value instanceof Boolean) {
+            emit((boolean) expr.value ? OpCode.TRUE : OpCode.FALSE, 1);
+        } else {
+            emit(CONSTANT, makeConstant(expr.value), 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line;
+
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(JUMP_IF_FALSE);
+            int endJump = emitJump(JUMP);
+            patchJump(elseJump);
+            emit(POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(JUMP_IF_FALSE);
+            emit(POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+
+        switch (expr.operator.type) {
+            case BANG: emit(NOT, 0); break;
+            case MINUS: emit(NEGATE, 0); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        throw new Unsupported("Function calls are not compiled.");
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        if (expr.depth >= 0) {
+            emit(GET_LOCAL, localIndex(expr.depth, expr.slot), 1);
+        } else {
+            emit(GET_GLOBAL, makeConstant(expr.name), 1);
+        }
+        return null;
+    }
+
+    // statements leave the stack as they found it
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        int base = localCount;
+        blockBases.add(base);
+        localCount += stmt.slotCount;
+        if (localCount > chunk.maxLocals) chunk.maxLocals = localCount;
+
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+
+        blockBases.remove(blockBases.size() - 1);
+        localCount = base;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported("Functions are not compiled.");
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        throw new Unsupported("Functions are not compiled.");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+
+        int thenJump = emitJump(JUMP_IF_FALSE);
+        emit(POP, -1);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(JUMP);
+        patchJump(thenJump);
+        emit(POP, -1);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        // the condition is popped on either path but only counted once
+        stackDepth++;
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(NIL, 1);
+        }
+
+        line = stmt.name.line;
+        if (stmt.slot >= 0) {
+            emit(SET_LOCAL, localIndex(0, stmt.slot), 0);
+            emit(POP, -1);
+        } else {
+            emit(DEFINE_GLOBAL, makeConstant(stmt.name), -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk.count;
+        compile(stmt.condition);
+
+        int exitJump = emitJump(JUMP_IF_FALSE);
+        emit(POP, -1);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emit(POP, -1);
+        // the condition is popped on either path but only counted once
+        stackDepth++;
+        return null;
+    }
+}
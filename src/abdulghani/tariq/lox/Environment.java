@@ -1,5 +1,6 @@
 package abdulghani.tariq.lox;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -10,10 +11,12 @@ class Environment {
 
     Environment() {
         enclosing = null;
+        if (Metrics.enabled) Metrics.environment();
     }
 
     Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        if (Metrics.enabled) Metrics.environment();
     }
 
 
@@ -21,11 +24,21 @@ class Environment {
         values.put(name, value);
     }
 
+    // read only view of this scope's own variables
+    Map<String, Object> values() {
+        return Collections.unmodifiableMap(values);
+    }
+
     Object get(Token name) {
+        return get(name, 0);
+    }
+
+    private Object get(Token name, int depth) {
         if (values.containsKey(name.lexeme)) {
+            if (Metrics.enabled) Metrics.chainDepth(depth);
             return values.get(name.lexeme);
         }
-        if (enclosing != null) return enclosing.get(name);
+        if (enclosing != null) return enclosing.get(name, depth + 1);
 
 
         throw new RuntimeError(name,
@@ -0,0 +1,32 @@
+package abdulghani.tariq.lox;
+
+/**
+ * Where the scanner, parser, resolver and interpreter send their errors.
+ * The command line reports to stderr through the static state in {@link Lox}, every
+ * {@link ExecutionContext} and every compilation of a {@link CompiledScript} has its own,
+ * so scripts on different threads never see each other's errors.
+ */
+interface ErrorReporter {
+    void report(int line, String where, String message);
+
+    void runtimeError(RuntimeError error);
+
+    boolean hadError();
+
+    default void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    default void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    // same text as the command line prints
+    static String format(int line, String where, String message) {
+        return "[line " + line + "] Error" + where + ": " + message;
+    }
+}
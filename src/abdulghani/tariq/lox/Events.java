@@ -0,0 +1,81 @@
+package abdulghani.tariq.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for the phases of Lox.run, they show up in a recording
+ * under the Lox category next to the JDK's own events.
+ * An event that isn't enabled in the recording costs nothing after JIT compilation, so
+ * they are always created.
+ */
+final class Events {
+    private Events() {}
+
+    @Name("lox.Scan")
+    @Label("Lox Scan")
+    @Category("Lox")
+    @Description("Source scanned into tokens")
+    static class Scan extends Event {
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Source Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("lox.Parse")
+    @Label("Lox Parse")
+    @Category("Lox")
+    @Description("Tokens parsed into statements")
+    static class Parse extends Event {
+        @Label("Statements")
+        @Description("Top level statements")
+        int statements;
+
+        @Label("Errors")
+        int errors;
+    }
+
+    @Name("lox.Resolve")
+    @Label("Lox Resolve")
+    @Category("Lox")
+    @Description("Optimizer and Resolver passes over the statements")
+    static class Resolve extends Event {
+        @Label("Nodes Removed")
+        @Description("Nodes the optimizer folded away")
+        int nodesRemoved;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("lox.Interpret")
+    @Label("Lox Interpret")
+    @Category("Lox")
+    @Description("Execution of a script or REPL line")
+    static class Interpret extends Event {
+        @Label("Engine")
+        String engine;
+
+        @Label("Statements Executed")
+        @Description("Counted by the tree walking interpreter only, 0 for the other engines")
+        long statementsExecuted;
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    static class RuntimeError extends Event {
+        @Label("Line")
+        int line;
+
+        @Label("Message")
+        String message;
+    }
+}
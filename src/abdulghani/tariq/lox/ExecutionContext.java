@@ -0,0 +1,171 @@
+package abdulghani.tariq.lox;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Globals, output and error state of {@link CompiledScript} runs.
+ * A context is used by one thread at a time, globals defined by one run are seen by the
+ * next run in the same context, which is how a host passes values in and reads results out.
+ * Values cross as Java types: numbers are Doubles, strings are Strings, nil is null.
+ */
+public final class ExecutionContext {
+    private final OutputSink out;
+    private final Reporter reporter = new Reporter();
+    private final Interpreter interpreter;
+    private boolean running = false;
+    private long fuel = Interpreter.UNLIMITED;
+
+    /**
+     * Print statements write to out, buffered and flushed when a run ends.
+     */
+    public ExecutionContext(OutputStream out) {
+        this.out = new OutputSink(out, OutputSink.FlushPolicy.THRESHOLD);
+        this.interpreter = new Interpreter(this.out, reporter);
+    }
+
+    public ExecutionContext() {
+        this(System.out);
+    }
+
+    /**
+     * Print statements write to out, which is flushed when a run ends.
+     */
+    public ExecutionContext(Writer out) {
+        this.out = new OutputSink(out, OutputSink.FlushPolicy.THRESHOLD);
+        this.interpreter = new Interpreter(this.out, reporter);
+    }
+
+    /**
+     * Defines or redefines a global, value is a Number, String, Boolean or null,
+     * or a function read from the globals of a run.
+     */
+    public void define(String name, Object value) {
+        interpreter.globals.define(name, Values.toLox(value));
+    }
+
+    /**
+     * @throws LoxException when the global isn't defined
+     */
+    public Object get(String name) {
+        try {
+            return Values.toJava(interpreter.globals.get(new Token(TokenType.IDENTIFIER, name, null, 0)));
+        } catch (RuntimeError error) {
+            throw new LoxException(error.getMessage(), List.of(error.getMessage()));
+        }
+    }
+
+    /**
+     * Budget of every following run: the number of statements and loop iterations it may
+     * execute. A run that exceeds it fails with a LoxException, a runaway loop included.
+     * Long.MAX_VALUE, the default, is no limit.
+     */
+    public void fuel(long budget) {
+        if (budget < 0) throw new IllegalArgumentException("Negative fuel budget " + budget + ".");
+        this.fuel = budget;
+    }
+
+    /**
+     * Fuel the last run left over, Long.MAX_VALUE without a budget.
+     */
+    public long fuelLeft() {
+        return interpreter.fuelLeft();
+    }
+
+    /**
+     * Snapshot of every global as Java values, natives like clock are left out since
+     * every context defines them.
+     */
+    public Map<String, Object> globals() {
+        Map<String, Object> globals = new HashMap<>();
+        interpreter.globals.values().forEach((name, value) -> {
+            if (!Natives.isNative(value)) globals.put(name, Values.toJava(value));
+        });
+        return globals;
+    }
+
+    void execute(List<Stmt> statements, YieldPoint yieldPoint) {
+        run(yieldPoint, () -> {
+            interpreter.interpret(statements);
+            return null;
+        });
+    }
+
+    /**
+     * Calls a function read from the globals of a run, arguments and result cross as Java values.
+     *
+     * @throws LoxException when the number of arguments is wrong or the call fails at runtime
+     */
+    Object call(LoxCallable function, List<Object> arguments) {
+        if (arguments.size() != function.arity()) {
+            String message = "Expected " + function.arity() + " arguments but got " + arguments.size() + ".";
+            throw new LoxException(message, List.of(message));
+        }
+        List<Object> values = new ArrayList<>(arguments.size());
+        for (Object argument : arguments) {
+            values.add(Values.toLox(argument));
+        }
+        return Values.toJava(run(null, () -> interpreter.call(function, values)));
+    }
+
+    private Object run(YieldPoint yieldPoint, Supplier<Object> body) {
+        if (running) throw new IllegalStateException("ExecutionContext is already running a script.");
+        running = true;
+        reporter.error = null;
+        interpreter.limits(yieldPoint, fuel);
+        // the same events as a command line run, so embedded scripts show up in a recording
+        Events.Interpret event = new Events.Interpret();
+        event.engine = "interpreter";
+        long executed = interpreter.statementsExecuted();
+        event.begin();
+        Object result;
+        try {
+            result = body.get();
+        } finally {
+            running = false;
+            event.statementsExecuted = interpreter.statementsExecuted() - executed;
+            event.commit();
+            out.flush();
+        }
+
+        RuntimeError error = reporter.error;
+        if (error != null) {
+            String message = error.getMessage() + "\n[line " + error.token.line + "]";
+            throw new LoxException(error.getMessage(), List.of(message));
+        }
+        return result;
+    }
+
+    // keeps the runtime error of the current run, the interpreter has stopped when it arrives
+    private static final class Reporter implements ErrorReporter {
+        RuntimeError error;
+
+        @Override
+        public void report(int line, String where, String message) {
+            // compile errors are reported by CompiledScript.compile
+            throw new IllegalStateException(ErrorReporter.format(line, where, message));
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+            if (Metrics.enabled) Metrics.runtimeError();
+            Events.RuntimeError event = new Events.RuntimeError();
+            if (event.shouldCommit()) {
+                event.line = error.token.line;
+                event.message = error.getMessage();
+                event.commit();
+            }
+            this.error = error;
+        }
+
+        @Override
+        public boolean hadError() {
+            return error != null;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package abdulghani.tariq.lox;
 
+import java.util.List;
 
 abstract class Expr {
     interface Visitor<R> {
@@ -9,7 +10,7 @@ abstract class Expr {
         R visitLiteralExpr(Literal expr);
         R visitLogicalExpr(Logical expr);
         R visitUnaryExpr(Unary expr);
-//        R visitCallExpr(Call expr);
+        R visitCallExpr(Call expr);
 //        R visitGetExpr(Get expr);
 //        R visitSetExpr(Set expr);
 //        R visitSuperExpr(Super expr);
@@ -35,6 +36,11 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+
+        // filled by Resolver, depth -1 means a global variable, cell that the slot holds a Cell
+        int depth = -1;
+        int slot = -1;
+        boolean cell = false;
     }
 
     static class Binary extends Expr {
@@ -52,6 +58,9 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+
+        // rewritten by the Interpreter as it observes operand types
+        BinaryNode node = BinaryNode.UNINITIALIZED;
     }
 
     static class Grouping extends Expr {
@@ -112,6 +121,23 @@ abstract class Expr {
         final Expr right;
     }
 
+    static class Call extends Expr {
+        Call(Expr callee, Token paren, List<Expr> arguments) {
+            this.callee = callee;
+            this.paren = paren;
+            this.arguments = arguments;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCallExpr(this);
+        }
+
+        final Expr callee;
+        final Token paren; // closing parenthesis, runtime errors report its line
+        final List<Expr> arguments;
+    }
+
     static class Variable extends Expr {
         Variable(Token name) {
             this.name = name;
@@ -123,5 +149,10 @@ abstract class Expr {
         }
 
         final Token name;
+
+        // filled by Resolver, depth -1 means a global variable, cell that the slot holds a Cell
+        int depth = -1;
+        int slot = -1;
+        boolean cell = false;
     }
 }
@@ -0,0 +1,96 @@
+package abdulghani.tariq.lox;
+
+/**
+ * Storage for the local variables of one scope.
+ * Values live in an array sized by the Resolver and are addressed by the
+ * (distance, slot) pairs it computed, so no names are hashed at runtime.
+ * Numbers are kept unboxed in a parallel double array, their slot in the object
+ * array holds {@link #UNBOXED}. The array is only allocated once a number is stored.
+ * Global variables stay in the interpreter's {@link Environment}.
+ * A function's captured variables live in a flat frame of their own that encloses every
+ * call frame of the function, the chain never reaches the frames it was declared in.
+ */
+class Frame {
+    /**
+     * Marks a slot whose value is in the numbers array, the Interpreter also returns it
+     * from evaluation when the resulting number is in {@link Interpreter#number}.
+     */
+    static final Object UNBOXED = new Object() {
+        @Override
+        public String toString() {
+            return "<unboxed>";
+        }
+    };
+
+    private static final Object[] NO_SLOTS = new Object[0];
+
+    final Frame enclosing; // parent pointer tree, null for top level scopes
+
+    private final Object[] slots;
+    private double[] numbers;
+
+    Frame(Frame enclosing, int size) {
+        this.enclosing = enclosing;
+        this.slots = size == 0 ? NO_SLOTS : new Object[size];
+        if (Metrics.enabled) Metrics.frame();
+    }
+
+    /**
+     * Reads a variable as an object, boxing it if it is stored unboxed.
+     */
+    Object get(int distance, int slot) {
+        Frame frame = ancestor(distance);
+        Object value = frame.slots[slot];
+        if (value != UNBOXED) return value;
+        if (Metrics.enabled) Metrics.boxed();
+        return frame.numbers[slot];
+    }
+
+    void set(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
+    }
+
+    // raw access used by the Interpreter, the slot may hold UNBOXED
+    Object getRaw(int slot) {
+        return slots[slot];
+    }
+
+    double getNumber(int slot) {
+        return numbers[slot];
+    }
+
+    void setNumber(int slot, double value) {
+        if (numbers == null) numbers = new double[slots.length];
+        numbers[slot] = value;
+        slots[slot] = UNBOXED;
+    }
+
+    /**
+     * Copies a slot of another frame without boxing, used to capture variables into a closure.
+     */
+    void copy(int slot, Frame source, int sourceSlot) {
+        Object value = source.slots[sourceSlot];
+        if (value == UNBOXED) {
+            setNumber(slot, source.numbers[sourceSlot]);
+        } else {
+            slots[slot] = value;
+        }
+    }
+
+    /**
+     * Moves the value of a slot into a new {@link Cell}, for parameters that closures assign.
+     */
+    void toCell(int slot) {
+        Object value = slots[slot];
+        slots[slot] = new Cell(value, value == UNBOXED ? numbers[slot] : 0);
+    }
+
+    Frame ancestor(int distance) {
+        if (Metrics.enabled) Metrics.chainDepth(distance);
+        Frame frame = this;
+        for (int i = 0; i < distance; i++) {
+            frame = frame.enclosing;
+        }
+        return frame;
+    }
+}
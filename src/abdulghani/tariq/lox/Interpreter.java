@@ -1,60 +1,101 @@
 package abdulghani.tariq.lox;
 
+import java.util.ArrayList;
 import java.util.List;
 
 class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void>{
 
-    private Environment environment = new Environment(); // global variables
+    final Environment globals = new Environment();
+    private Frame frame = null; // locals of the innermost block, null at top level
+    private final OutputSink out;
+    private final ErrorReporter reporter;
+    private Profiler profiler = null; // set with --profile, sees every executed statement
+    private long statementsExecuted = 0;
+
+    static final long UNLIMITED = Long.MAX_VALUE;
+
+    // statements and loop back-edges left until the next checkpoint, the countdown is
+    // the only thing the hot paths touch, fuel and yield points are settled in checkpoint
+    private int countdown = Integer.MAX_VALUE;
+    private int issued = Integer.MAX_VALUE; // countdown at the last checkpoint
+    private long fuel = UNLIMITED; // budget left as of the last checkpoint
+    private long budget = UNLIMITED;
+    private YieldPoint yieldPoint = null; // set by ScriptScheduler
+
+    Interpreter(OutputSink out) {
+        this(out, Lox.REPORTER);
+    }
 
-    @Override
-    public Object visitAssignExpr(Expr.Assign expr) {
-        Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
-        return value;
+    Interpreter(OutputSink out, ErrorReporter reporter) {
+        this.out = out;
+        this.reporter = reporter;
+
+        Natives.define(globals);
     }
 
-    @Override
-    public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
+    void profile(Profiler profiler) {
+        this.profiler = profiler;
+    }
 
-        switch (expr.operator.type) {
-            case GREATER:
-                return (double)left > (double)right;
-            case GREATER_EQUAL:
-                return (double)left >= (double)right;
-            case LESS:
-                return (double)left < (double)right;
-            case LESS_EQUAL:
-                return (double)left <= (double)right;
-            case BANG_EQUAL: return !isEqual(left, right);
-            case EQUAL_EQUAL: return isEqual(left, right);
+    /**
+     * Limits for the next runs, fuel is the number of statements and loop iterations
+     * they may execute together, a run that needs more fails with a RuntimeError.
+     */
+    void limits(YieldPoint yieldPoint, long fuel) {
+        this.yieldPoint = yieldPoint;
+        this.fuel = fuel;
+        this.budget = fuel;
+        issued = countdown = nextCountdown();
+    }
 
-            case MINUS:
-                return (double)left - (double)right;
-            case SLASH:
-                return (double)left / (double)right;
-            case STAR:
-                return (double)left * (double)right;
-            case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
-                }
+    long fuelLeft() {
+        return fuel == UNLIMITED ? UNLIMITED : fuel - (issued - countdown);
+    }
 
-                if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
-                }
+    long statementsExecuted() {
+        return statementsExecuted;
+    }
+
+    // holds the value of the last evaluation that returned Frame.UNBOXED
+    double number;
+
+    // a return statement sets returning and the statement loops stop until the call that
+    // is returning from sees it, no exception is thrown. returnValue may be Frame.UNBOXED.
+    private boolean returning = false;
+    private Object returnValue = null;
+    // set together with returning by a return in tail position, the call continues with
+    // this function and frame instead of growing the Java stack
+    private LoxFunction tailFunction = null;
+    private Frame tailFrame = null;
 
-                break;
+    @Override
+    public Object visitAssignExpr(Expr.Assign expr) {
+        Object value = evaluateRaw(expr.value);
+        if (expr.depth >= 0) {
+            Frame target = frame.ancestor(expr.depth);
+            if (expr.cell) {
+                ((Cell) target.getRaw(expr.slot)).set(value, number);
+            } else if (value == Frame.UNBOXED) {
+                target.setNumber(expr.slot, number);
+            } else {
+                target.set(0, expr.slot, value);
+            }
+        } else {
+            if (value == Frame.UNBOXED) value = boxed();
+            globals.assign(expr.name, value);
         }
+        return value;
+    }
 
-        // Unreachable.
-        return null;
+    @Override
+    public Object visitBinaryExpr(Expr.Binary expr) {
+        // the node specializes itself on first execution, see BinaryNode
+        return expr.node.execute(this, expr);
     }
 
     @Override
     public Object visitGroupingExpr(Expr.Grouping expr) {
-        return evaluate(expr.expression);
+        return evaluateRaw(expr.expression);
     }
 
     @Override
@@ -64,7 +105,7 @@ class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void>{
 
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
-        Object left = evaluate(expr.left);
+        Object left = evaluateRaw(expr.left);
 
         if (expr.operator.type == TokenType.OR) {
             if (isTruthy(left)) return left;
@@ -72,53 +113,161 @@ class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void>{
             if (!isTruthy(left)) return left;
         }
 
-        return evaluate(expr.right);
+        return evaluateRaw(expr.right);
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
-
         switch (expr.operator.type) {
             case BANG:
-                return !isTruthy(right);
+                return !isTruthy(evaluateRaw(expr.right));
 
             case MINUS:
-                return -(double)right;
+                number = -evaluateNumber(expr.right);
+                return Frame.UNBOXED;
         }
 
         // Unreachable.
         return null;
     }
 
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        Object callee = evaluate(expr.callee);
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            return invoke(function, bind(expr, function));
+        }
+        return callNative(expr, callee);
+    }
+
+    /**
+     * Evaluates the arguments straight into a frame sized for the function.
+     */
+    private Frame bind(Expr.Call expr, LoxFunction function) {
+        Stmt.Function declaration = function.declaration;
+        List<Expr> arguments = expr.arguments;
+        checkArity(expr, declaration.params.size());
+
+        Frame callee = new Frame(function.captures, declaration.slotCount);
+        for (int i = 0; i < arguments.size(); i++) {
+            Object value = evaluateRaw(arguments.get(i));
+            if (value == Frame.UNBOXED) {
+                callee.setNumber(i, number);
+            } else {
+                callee.set(0, i, value);
+            }
+        }
+        return callee;
+    }
+
+    private Object callNative(Expr.Call expr, Object callee) {
+        List<Object> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            arguments.add(evaluate(argument));
+        }
+
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+        }
+        LoxCallable function = (LoxCallable) callee;
+        checkArity(expr, function.arity());
+        return function.call(this, arguments);
+    }
+
+    private static void checkArity(Expr.Call expr, int arity) {
+        if (expr.arguments.size() != arity) {
+            throw new RuntimeError(expr.paren, "Expected " + arity + " arguments but got "
+                    + expr.arguments.size() + ".");
+        }
+    }
+
+    /**
+     * Runs the function's body in the frame holding its arguments, a trampoline for tail
+     * calls, and returns its value, possibly Frame.UNBOXED.
+     */
+    Object invoke(LoxFunction function, Frame frame) {
+        try {
+            for (;;) {
+                for (int slot : function.declaration.cellParams) {
+                    frame.toCell(slot);
+                }
+                executeBlock(function.declaration.body, frame);
+                if (!returning) return null;
+                returning = false;
+                if (tailFunction == null) {
+                    Object value = returnValue;
+                    returnValue = null;
+                    return value;
+                }
+
+                function = tailFunction;
+                frame = tailFrame;
+                tailFunction = null;
+                tailFrame = null;
+            }
+        } catch (StackOverflowError error) {
+            // deep recursion that isn't a tail call, reported like any runtime error
+            throw new RuntimeError(function.declaration.name, "Stack overflow.");
+        }
+    }
+
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        if (expr.depth >= 0) {
+            Frame target = frame.ancestor(expr.depth);
+            Object value = target.getRaw(expr.slot);
+            if (expr.cell) {
+                Cell cell = (Cell) value;
+                value = cell.value;
+                if (value == Frame.UNBOXED) number = cell.number;
+                return value;
+            }
+            if (value == Frame.UNBOXED) number = target.getNumber(expr.slot);
+            return value;
+        }
+        return globals.get(expr.name);
     }
 
+    /**
+     * Evaluates to a plain object, numbers are boxed here when they escape.
+     */
+    Object evaluate(Expr expr) {
+        Object value = expr.accept(this);
+        return value == Frame.UNBOXED ? boxed() : value;
+    }
 
-    private Object evaluate(Expr expr) {
+    private Object boxed() {
+        if (Metrics.enabled) Metrics.boxed();
+        return number;
+    }
+
+    /**
+     * Evaluates without boxing, Frame.UNBOXED means the value is in {@link #number}.
+     * Callers must read it before evaluating anything else.
+     */
+    Object evaluateRaw(Expr expr) {
         return expr.accept(this);
     }
 
+    double evaluateNumber(Expr expr) {
+        Object value = expr.accept(this);
+        return value == Frame.UNBOXED ? number : (double) value;
+    }
+
     private boolean isTruthy(Object object) {
-        if (object == null) return false;
-        if (object instanceof Boolean) return (boolean)object;
-        return true;
+        return Values.isTruthy(object);
     }
 
     private boolean isEqual(Object a, Object b) {
-        if (a == null && b == null) return true;
-        if (a == null) return false;
-
-        return a.equals(b);
+        return Values.isEqual(a, b);
     }
 
 //    void interpret(Expr expression) {
 //        try {
 //            Object value = evaluate(expression);
 //            System.out.println("interpret");
-//            System.out.println(stringify(value));
+//            out.println(stringify(value));
 //        } catch (RuntimeError error) {
 //            // todo fix it
 //            Lox.runtimeError(error);
@@ -127,65 +276,164 @@ class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void>{
 //    }
 
     private String stringify(Object object) {
-        if (object == null) return "nil";
-
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
-        }
-
-        return object.toString();
+        return Values.stringify(object);
     }
 
     void interpret(List<Stmt> statements) {
+        reset();
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            reporter.runtimeError(error);
+        }
+    }
+
+    /**
+     * Calls a function for an embedding host. A runtime error goes to the reporter the same
+     * way it does in interpret, and the call returns null.
+     */
+    Object call(LoxCallable function, List<Object> arguments) {
+        reset();
+        try {
+            return function.call(this, arguments);
+        } catch (RuntimeError error) {
+            reporter.runtimeError(error);
+            return null;
         }
     }
 
+    // a previous run may have stopped with an error in the middle of a return
+    private void reset() {
+        returning = false;
+        tailFunction = null;
+        tailFrame = null;
+    }
+
     private void execute(Stmt stmt) {
         // guard since in error recovery in declaration it returns null
         // which makes a problem
-       if (stmt != null)stmt.accept(this);
+        if (stmt == null) return;
+        statementsExecuted++;
+        if (--countdown <= 0) checkpoint(stmt);
+        if (Metrics.enabled) Metrics.statement(stmt);
+        if (profiler == null) {
+            stmt.accept(this);
+            return;
+        }
+
+        profiler.push(stmt);
+        try {
+            stmt.accept(this);
+        } finally {
+            profiler.pop();
+        }
     }
 
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        executeBlock(stmt.statements, new Frame(frame, stmt.slotCount));
         return null;
     }
     void executeBlock(List<Stmt> statements,
-                      Environment environment) {
-        Environment previous = this.environment;
+                      Frame frame) {
+        Frame previous = this.frame;
         try {
-            this.environment = environment;
+            this.frame = frame;
 
             for (Stmt statement : statements) {
                 execute(statement);
+                if (returning) break;
             }
         } finally {
-            this.environment = previous;
+            this.frame = previous;
+        }
+    }
+
+    // without fuel or a YieldPoint this runs once every 2^31 statements and back-edges
+    private void checkpoint(Stmt stmt) {
+        if (fuel != UNLIMITED) {
+            fuel -= issued;
+            if (fuel < 0) {
+                fuel = 0;
+                issued = countdown = 1; // stays empty, the next unit fails again
+                throw new RuntimeError(new Token(TokenType.IDENTIFIER, "", null, stmt.line),
+                        "Script ran out of fuel, its budget is " + budget + ".");
+            }
         }
+        issued = countdown = nextCountdown();
+    }
+
+    // one more than the fuel left so the countdown reaches zero on the first unit too many
+    private int nextCountdown() {
+        int next = yieldPoint == null ? Integer.MAX_VALUE : yieldPoint.reached();
+        if (fuel < next) next = (int) fuel + 1;
+        return next;
     }
 
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
-        evaluate(stmt.expression);
+        evaluateRaw(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // a function that captures its own name captures this cell, so it exists first
+        Cell cell = null;
+        if (stmt.cell) {
+            cell = new Cell(null, 0);
+            frame.set(0, stmt.slot, cell);
+        }
+
+        // only the variables the body uses are copied, the declaring frames stay collectable
+        Frame captures = null;
+        int[] depths = stmt.captureDepths;
+        if (depths.length > 0) {
+            captures = new Frame(null, depths.length);
+            for (int i = 0; i < depths.length; i++) {
+                captures.copy(i, frame.ancestor(depths[i]), stmt.captureSlots[i]);
+            }
+        }
+
+        LoxFunction function = new LoxFunction(stmt, captures);
+        if (cell != null) {
+            cell.value = function;
+        } else if (stmt.slot >= 0) {
+            frame.set(0, stmt.slot, function);
+        } else {
+            globals.define(stmt.name.lexeme, function);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        // return f(x); hands f and its frame to invoke, which runs it in place of this call
+        if (stmt.value instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) stmt.value;
+            Object callee = evaluate(call.callee);
+            if (callee instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction) callee;
+                tailFrame = bind(call, function);
+                tailFunction = function;
+                returning = true;
+                return null;
+            }
+            returnValue = callNative(call, callee);
+        } else {
+            returnValue = stmt.value == null ? null : evaluateRaw(stmt.value);
+        }
+        returning = true;
         return null;
     }
 
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
-        if (isTruthy(evaluate(stmt.condition))){
+        if (isTruthy(evaluateRaw(stmt.condition))){
             execute(stmt.thenBranch);
         }else if(stmt.elseBranch != null){
-            execute(stmt.thenBranch);
+            execute(stmt.elseBranch);
         }
         return null;
     }
@@ -193,7 +441,7 @@ class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void>{
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(stringify(value));
         return null;
     }
 
@@ -201,17 +449,30 @@ class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void>{
     public Void visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
-            value = evaluate(stmt.initializer);
+            value = evaluateRaw(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        if (stmt.slot >= 0) {
+            if (stmt.cell) {
+                frame.set(0, stmt.slot, new Cell(value, number));
+            } else if (value == Frame.UNBOXED) {
+                frame.setNumber(stmt.slot, number);
+            } else {
+                frame.set(0, stmt.slot, value);
+            }
+        } else {
+            if (value == Frame.UNBOXED) value = boxed();
+            globals.define(stmt.name.lexeme, value);
+        }
         return null;
     }
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
+        while (isTruthy(evaluateRaw(stmt.condition))) {
             execute(stmt.body);
+            if (returning) break;
+            if (--countdown <= 0) checkpoint(stmt);
         }
         return null;
     }
@@ -0,0 +1,367 @@
+package abdulghani.tariq.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import static abdulghani.tariq.lox.ClassFile.*;
+
+/**
+ * Compiles resolved statements into a JVM class loaded as a hidden class, selected with --jvm.
+ * All top level code goes into one static method
+ * run(Environment globals, OutputSink out, Object[] constants) so HotSpot can JIT compile
+ * Lox loops directly. Locals are flattened the same way the
+ * bytecode {@link Compiler} does it and become JVM locals, globals and operators go through
+ * {@link JvmRuntime}. Programs it can't handle throw {@link Unsupported} and the caller falls
+ * back to the {@link Interpreter}.
+ */
+class JvmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    static class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message);
+        }
+    }
+
+    private static final String CLASS_NAME = "abdulghani/tariq/lox/LoxScript";
+    private static final String RUNTIME = "abdulghani/tariq/lox/JvmRuntime";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String BINARY = "(" + OBJECT + OBJECT + ")" + OBJECT;
+    private static final String UNARY = "(" + OBJECT + ")" + OBJECT;
+
+    private static final int GLOBALS = 0; // JVM local holding the globals Environment
+    private static final int OUT = 1; // JVM local holding the OutputSink
+    private static final int CONSTANTS = 2; // JVM local holding the constants array
+    private static final int FIRST_LOCAL = 3;
+
+    private final ClassFile classFile = new ClassFile(CLASS_NAME);
+    private final List<Object> constants = new ArrayList<>();
+
+    // base local index of every enclosing block, innermost last
+    private final List<Integer> blockBases = new ArrayList<>();
+    private int localCount = 0;
+    private int maxLocals = 0;
+    private int stackDepth = 0;
+    private int maxStack = 0;
+
+    /**
+     * Generates and loads the class, the returned handle takes the globals and the output sink.
+     */
+    static MethodHandle compile(List<Stmt> statements) {
+        JvmCompiler compiler = new JvmCompiler();
+        for (Stmt statement : statements) {
+            compiler.compile(statement);
+        }
+        compiler.classFile.emit(ClassFile.RETURN);
+        return compiler.load();
+    }
+
+    static void run(MethodHandle script, Environment globals, OutputSink out) {
+        try {
+            script.invokeExact(globals, out);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private MethodHandle load() {
+        if (classFile.length > 0xffff) {
+            throw new Unsupported("Script is too large for a single JVM method.");
+        }
+
+        String descriptor = "(Labdulghani/tariq/lox/Environment;Labdulghani/tariq/lox/OutputSink;["
+                + OBJECT + ")V";
+        byte[] bytes = classFile.toBytes("run", descriptor, maxStack, FIRST_LOCAL + maxLocals);
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle run = lookup.findStatic(lookup.lookupClass(), "run",
+                    MethodType.methodType(void.class, Environment.class, OutputSink.class, Object[].class));
+            return MethodHandles.insertArguments(run, 2, (Object) constants.toArray());
+        } catch (IllegalAccessException | NoSuchMethodException | LinkageError e) {
+            throw new Unsupported("Generated class failed to load: " + e);
+        }
+    }
+
+    private void compile(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    // emitting utils
+    private void adjustStack(int effect) {
+        stackDepth += effect;
+        if (stackDepth > maxStack) maxStack = stackDepth;
+    }
+
+    private void emit(int opcode, int stackEffect) {
+        classFile.emit(opcode);
+        adjustStack(stackEffect);
+    }
+
+    private void invokeRuntime(String name, String descriptor, int stackEffect) {
+        classFile.emit(INVOKESTATIC);
+        classFile.emitShort(classFile.methodRef(RUNTIME, name, descriptor));
+        adjustStack(stackEffect);
+    }
+
+    private void loadConstant(Object value) {
+        int index = constants.size();
+        if (index > Short.MAX_VALUE) throw new Unsupported("Too many constants.");
+        constants.add(value);
+
+        classFile.emitLocal(ALOAD, CONSTANTS);
+        adjustStack(1);
+        classFile.emitInt(index);
+        adjustStack(1);
+        emit(AALOAD, -1);
+    }
+
+    private void loadGlobals() {
+        classFile.emitLocal(ALOAD, GLOBALS);
+        adjustStack(1);
+    }
+
+    private int jvmLocal(int depth, int slot) {
+        return FIRST_LOCAL + blockBases.get(blockBases.size() - 1 - depth) + slot;
+    }
+
+    private int emitJump(int opcode, int stackEffect) {
+        int at = classFile.length;
+        emit(opcode, stackEffect);
+        classFile.emitShort(0);
+        return at;
+    }
+
+    private void patchJump(int at) {
+        int offset = classFile.length - at;
+        if (offset > Short.MAX_VALUE) throw new Unsupported("Too much code to jump over.");
+        classFile.patchShort(at + 1, offset);
+    }
+
+    private void emitLoop(int loopStart) {
+        int offset = loopStart - classFile.length;
+        if (offset < Short.MIN_VALUE) throw new Unsupported("Loop body too large.");
+        emit(GOTO, 0);
+        classFile.emitShort(offset);
+    }
+
+    // pops a value and branches to the returned jump when it is falsey
+    private int emitJumpIfFalse() {
+        invokeRuntime("isTruthy", "(" + OBJECT + ")Z", 0);
+        return emitJump(IFEQ, -1);
+    }
+
+    // expressions leave exactly one value on the stack
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (expr.depth >= 0) {
+            compile(expr.value);
+            emit(DUP, 1);
+            classFile.emitLocal(ASTORE, jvmLocal(expr.depth, expr.slot));
+            adjustStack(-1);
+        } else {
+            loadGlobals();
+            loadConstant(expr.name);
+            compile(expr.value);
+            invokeRuntime("setGlobal",
+                    "(Labdulghani/tariq/lox/Environment;" + OBJECT + OBJECT + ")" + OBJECT, -2);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        String name;
+        switch (expr.operator.type) {
+            case GREATER: name = "greater"; break;
+            case GREATER_EQUAL: name = "greaterEqual"; break;
+            case LESS: name = "less"; break;
+            case LESS_EQUAL: name = "lessEqual"; break;
+            case BANG_EQUAL: name = "notEqual"; break;
+            case EQUAL_EQUAL: name = "equal"; break;
+            case MINUS: name = "subtract"; break;
+            case SLASH: name = "divide"; break;
+            case STAR: name = "multiply"; break;
+            case PLUS: name = "add"; break;
+            default:
+                throw new Unsupported("Unknown binary operator " + expr.operator.type + ".");
+        }
+        invokeRuntime(name, BINARY, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(ACONST_NULL, 1);
+        } else if (expr.value instanceof Boolean) {
+            classFile.emit(GETSTATIC);
+            classFile.emitShort(classFile.fieldRef("java/lang/Boolean",
+                    (boolean) expr.value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;"));
+            adjustStack(1);
+        } else {
+            loadConstant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        emit(DUP, 1);
+        invokeRuntime("isTruthy", "(" + OBJECT + ")Z", 0);
+
+        // short circuit keeps the left value on the stack
+        int end = emitJump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, -1);
+        emit(POP, -1);
+        compile(expr.right);
+        patchJump(end);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case BANG: invokeRuntime("not", UNARY, 0); break;
+            case MINUS: invokeRuntime("negate", UNARY, 0); break;
+            default:
+                throw new Unsupported("Unknown unary operator " + expr.operator.type + ".");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        throw new Unsupported("Function calls are not compiled.");
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            classFile.emitLocal(ALOAD, jvmLocal(expr.depth, expr.slot));
+            adjustStack(1);
+        } else {
+            loadGlobals();
+            loadConstant(expr.name);
+            invokeRuntime("getGlobal",
+                    "(Labdulghani/tariq/lox/Environment;" + OBJECT + ")" + OBJECT, -1);
+        }
+        return null;
+    }
+
+    // statements leave the stack empty
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        int base = localCount;
+        blockBases.add(base);
+        localCount += stmt.slotCount;
+        if (localCount > maxLocals) maxLocals = localCount;
+        if (FIRST_LOCAL + localCount > 0xffff) throw new Unsupported("Too many local variables.");
+
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+
+        blockBases.remove(blockBases.size() - 1);
+        localCount = base;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported("Functions are not compiled.");
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        throw new Unsupported("Functions are not compiled.");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJumpIfFalse();
+        compile(stmt.thenBranch);
+
+        if (stmt.elseBranch != null) {
+            int elseJump = emitJump(GOTO, 0);
+            patchJump(thenJump);
+            compile(stmt.elseBranch);
+            patchJump(elseJump);
+        } else {
+            patchJump(thenJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        classFile.emitLocal(ALOAD, OUT);
+        adjustStack(1);
+        compile(stmt.expression);
+        invokeRuntime("print", "(Labdulghani/tariq/lox/OutputSink;" + OBJECT + ")V", -2);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot >= 0) {
+            if (stmt.initializer != null) {
+                compile(stmt.initializer);
+            } else {
+                emit(ACONST_NULL, 1);
+            }
+            classFile.emitLocal(ASTORE, jvmLocal(0, stmt.slot));
+            adjustStack(-1);
+        } else {
+            loadGlobals();
+            loadConstant(stmt.name);
+            if (stmt.initializer != null) {
+                compile(stmt.initializer);
+            } else {
+                emit(ACONST_NULL, 1);
+            }
+            invokeRuntime("defineGlobal",
+                    "(Labdulghani/tariq/lox/Environment;" + OBJECT + OBJECT + ")V", -3);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = classFile.length;
+        compile(stmt.condition);
+        int exitJump = emitJumpIfFalse();
+        compile(stmt.body);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        return null;
+    }
+}
@@ -0,0 +1,89 @@
+package abdulghani.tariq.lox;
+
+/**
+ * Operations called from classes generated by {@link JvmCompiler}.
+ * They are small static methods so C2 inlines them into the generated code,
+ * each one has the same semantics as the matching Interpreter visit method.
+ */
+final class JvmRuntime {
+
+    private JvmRuntime() {
+    }
+
+    static Object add(Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
+
+        if (Values.isString(left) && Values.isString(right)) {
+            return LoxString.concat(left, right);
+        }
+
+        return null;
+    }
+
+    static Object subtract(Object left, Object right) {
+        return (double)left - (double)right;
+    }
+
+    static Object multiply(Object left, Object right) {
+        return (double)left * (double)right;
+    }
+
+    static Object divide(Object left, Object right) {
+        return (double)left / (double)right;
+    }
+
+    static Object greater(Object left, Object right) {
+        return (double)left > (double)right;
+    }
+
+    static Object greaterEqual(Object left, Object right) {
+        return (double)left >= (double)right;
+    }
+
+    static Object less(Object left, Object right) {
+        return (double)left < (double)right;
+    }
+
+    static Object lessEqual(Object left, Object right) {
+        return (double)left <= (double)right;
+    }
+
+    static Object equal(Object left, Object right) {
+        return Values.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right) {
+        return !Values.isEqual(left, right);
+    }
+
+    static Object negate(Object right) {
+        return -(double)right;
+    }
+
+    static Object not(Object right) {
+        return !Values.isTruthy(right);
+    }
+
+    static boolean isTruthy(Object value) {
+        return Values.isTruthy(value);
+    }
+
+    static void print(OutputSink out, Object value) {
+        out.println(Values.stringify(value));
+    }
+
+    static Object getGlobal(Environment globals, Object name) {
+        return globals.get((Token) name);
+    }
+
+    static Object setGlobal(Environment globals, Object name, Object value) {
+        globals.assign((Token) name, value);
+        return value;
+    }
+
+    static void defineGlobal(Environment globals, Object name, Object value) {
+        globals.define(((Token) name).lexeme, value);
+    }
+}
@@ -3,38 +3,184 @@ package abdulghani.tariq.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Locale;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class Lox {
+    // reported by the REPL and the script engine, the AST cache keys on the build itself
+    static final String VERSION = "0.0.0";
+
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
-    private static final Interpreter interpreter = new Interpreter();
+    // created in main once the output sink is known, null when Lox is embedded
+    private static OutputSink out;
+    private static Interpreter interpreter;
+    private static VM vm;
+
+    private enum Engine { INTERPRETER, VM, JVM }
+    private static Engine engine = Engine.INTERPRETER;
+    private static boolean verbose = false; // --verbose reports what the passes did on stderr
+    private static OutputSink.FlushPolicy flushPolicy = null; // null picks one from the mode
+    private static boolean useCache = true; // --no-cache always scans and parses
+    private static boolean profile = false; // --profile samples the interpreter, see Profiler
+    private static boolean metrics = false; // --metrics publishes LoxMetricsMXBean
+    private static long fuel = Interpreter.UNLIMITED; // --fuel=n, per script or REPL line
+    // recursion that isn't a tail call grows the Java stack, scripts run on a thread with room for it
+    private static final long STACK_SIZE = 256L << 20;
+
+    // the command line reports to stderr and exits with 65 or 70, see runFile
+    static final ErrorReporter REPORTER = new ErrorReporter() {
+        @Override
+        public void report(int line, String where, String message) {
+            Lox.report(line, where, message);
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+
+        @Override
+        public boolean hadError() {
+            return hadError;
+        }
+    };
 
 
     public static void main(String[] args) throws IOException {
-        if(args.length > 1){
-            System.out.println("Lox bad parameters");
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--"); first++) {
+            switch (args[first]) {
+                case "--vm": engine = Engine.VM; break; // bytecode VM
+                case "--jvm": engine = Engine.JVM; break; // generated JVM classes
+                case "--verbose": verbose = true; break;
+                case "--no-cache": useCache = false; break;
+                case "--profile": profile = true; break;
+                case "--metrics": metrics = true; break;
+                case "--flush=line": flushPolicy = OutputSink.FlushPolicy.PER_LINE; break;
+                case "--flush=threshold": flushPolicy = OutputSink.FlushPolicy.THRESHOLD; break;
+                case "--flush=exit": flushPolicy = OutputSink.FlushPolicy.ON_EXIT; break;
+                default:
+                    if (args[first].startsWith("--fuel=")) {
+                        fuel = parseFuel(args[first].substring("--fuel=".length()));
+                        break;
+                    }
+                    System.out.println("Lox unknown option " + args[first]);
+                    System.exit(64);
+            }
+        }
+
+        if(args.length - first > 1){
+            System.out.println("Usage: lox [--vm | --jvm] [--verbose] [--no-cache] [--profile] [--metrics] " +
+                    "[--fuel=n] [--flush=line|threshold|exit] [script]");
             System.exit(64);
-        }else if( args.length == 1){
-             runFile(args[0]);
-        }else {
-            runPrompt();
+        }
+
+        boolean interactive = args.length == first;
+        if (profile && (interactive || engine != Engine.INTERPRETER)) {
+            System.out.println("--profile needs a script and the tree walking interpreter.");
+            System.exit(64);
+        }
+        if (fuel != Interpreter.UNLIMITED && engine != Engine.INTERPRETER) {
+            System.out.println("--fuel needs the tree walking interpreter.");
+            System.exit(64);
+        }
+        if (flushPolicy == null) {
+            flushPolicy = interactive ? OutputSink.FlushPolicy.PER_LINE : OutputSink.FlushPolicy.THRESHOLD;
+        }
+        if (metrics) registerMetrics();
+        out = new OutputSink(System.out, flushPolicy);
+        interpreter = new Interpreter(out);
+        vm = new VM(out, interpreter.globals);
+
+        String path = interactive ? null : args[first];
+        // anything the runner throws is rethrown here, the exit status stays what it was on main
+        Throwable[] failure = new Throwable[1];
+        Thread runner = new Thread(null, () -> {
+            try {
+                if (interactive) {
+                    runPrompt();
+                } else {
+                    runFile(path);
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                failure[0] = e;
+            }
+        }, "lox", STACK_SIZE);
+        runner.start();
+        try {
+            runner.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure[0] instanceof IOException) throw (IOException) failure[0];
+        if (failure[0] instanceof RuntimeException) throw (RuntimeException) failure[0];
+        if (failure[0] instanceof Error) throw (Error) failure[0];
+    }
+
+    private static long parseFuel(String budget) {
+        try {
+            long fuel = Long.parseLong(budget);
+            if (fuel >= 0) return fuel;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        System.out.println("--fuel needs a number of statements, not " + budget);
+        System.exit(64);
+        return 0;
+    }
+
+    // opt in since starting the platform MBean server costs every run startup time
+    private static void registerMetrics() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    Metrics.INSTANCE, new ObjectName("abdulghani.tariq.lox:type=Metrics"));
+            Metrics.enabled = true;
+        } catch (JMException e) {
+            System.err.println("Metrics are not available: " + e);
         }
     }
 
     private   static  void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Path script = Paths.get(path);
+        AstCache cache = useCache ? AstCache.forScript(script) : null;
+        List<Stmt> statements = cache != null ? cache.load() : null;
+        if (verbose && cache != null) {
+            System.err.println("[cache] " + (statements != null ? "hit " : "miss ") + cache.file());
+        }
+
+        try {
+            if (statements == null) {
+                // scanned from the mapped file, the source is never copied into a String
+                statements = compile(MappedSource.open(script));
+                if (statements != null && cache != null) store(cache, statements);
+            }
+            if (statements != null) {
+                if (profile) {
+                    profile(script, statements);
+                } else {
+                    execute(statements);
+                }
+            }
+        } finally {
+            // also when the script crashes, output printed before that must not be lost
+            out.flush();
+        }
         if (hadError) System.exit(65); // describe error
         if (hadRuntimeError) System.exit(70);
     }
 
     private   static  void runPrompt() throws IOException {
-        System.out.println("lox v0.0.0");
+        System.out.println("lox v" + VERSION);
         BufferedReader reader =  new BufferedReader(new InputStreamReader(System.in));
 
         for(;;){
@@ -46,49 +192,130 @@ public class Lox {
         }
     }
 
-    private   static  void run(String source){
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+    private   static  void run(CharSequence source){
+        List<Stmt> statements = compile(source);
+        if (statements != null) execute(statements);
+    }
+
+    /**
+     * Scans, parses, optimizes and resolves, returns null when there was an error.
+     */
+    private static List<Stmt> compile(CharSequence source) {
+        return CompiledScript.frontEnd(source, REPORTER, verbose ? System.err : null);
+    }
+
+    // a cache that can't be written only costs the next run a parse
+    private static void store(AstCache cache, List<Stmt> statements) {
+        try {
+            cache.store(statements);
+        } catch (IOException | IllegalArgumentException e) {
+            if (verbose) System.err.println("[cache] not stored: " + e);
+        }
+    }
+
+    /**
+     * Runs under the sampling profiler, writes <script>.collapsed to the working directory
+     * and the per line table to stderr.
+     */
+    private static void profile(Path script, List<Stmt> statements) throws IOException {
+        Profiler profiler = new Profiler(Profiler.DEFAULT_INTERVAL_NANOS);
+        interpreter.profile(profiler);
+        profiler.start();
+        try {
+            execute(statements);
+        } finally {
+            profiler.stop();
+            interpreter.profile(null);
+        }
 
-        // For now, just print the tokens.
-//        for (Token token : tokens) {
-//            System.out.println(token);
-//        }
+        out.flush();
+        String name = script.getFileName().toString();
+        Path collapsed = Paths.get(name + ".collapsed");
+        profiler.writeCollapsed(collapsed, name);
+        List<String> source;
+        try {
+            source = Files.readAllLines(script, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            source = List.of(); // the table still has line numbers
+        }
+        profiler.printLines(System.err, source);
+        System.err.println("Collapsed stacks written to " + collapsed);
+    }
 
-        Parser parser = new Parser(tokens);
-//        Expr expression = parser.parse();
-//
-//        // Stop if there was a syntax error.
-        if (hadError) return;
-//
-//        System.out.println(new AstPrinter().print(expression));
-        List<Stmt> statements = parser.parse();
-        interpreter.interpret(statements);
+    private static void execute(List<Stmt> statements) {
+        Events.Interpret event = new Events.Interpret();
+        event.engine = engine.name().toLowerCase(Locale.ROOT);
+        long executed = interpreter.statementsExecuted();
+        interpreter.limits(null, fuel);
+        event.begin();
+        try {
+            dispatch(statements);
+        } finally {
+            // the JVM engine may fall back to the interpreter, count what it ran either way
+            event.statementsExecuted = interpreter.statementsExecuted() - executed;
+            event.commit();
+        }
+    }
+
+    private static void dispatch(List<Stmt> statements) {
+        switch (engine) {
+            case VM:
+                Chunk chunk;
+                try {
+                    chunk = new Compiler().compile(statements);
+                } catch (Compiler.Unsupported unsupported) {
+                    // shares globals with the VM so falling back is invisible, like --jvm
+                    interpreter.interpret(statements);
+                    break;
+                }
+                if (hadError) return;
+                vm.interpret(chunk);
+                break;
+            case JVM:
+                MethodHandle script;
+                try {
+                    script = JvmCompiler.compile(statements);
+                } catch (JvmCompiler.Unsupported unsupported) {
+                    // shares globals with the generated code so falling back is invisible
+                    interpreter.interpret(statements);
+                    break;
+                }
+                JvmCompiler.run(script, interpreter.globals, out);
+                break;
+            default:
+                interpreter.interpret(statements);
+        }
 
 
     }
 
     static void error(int line, String message) {
-        report(line, "", message);
+        REPORTER.error(line, message);
     }
 
     // todo implement to be more user friendly
     private static void report(int line, String where, String message) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message);
+        // keeps stdout and stderr in program order, out is null when Lox is embedded and
+        // REPORTER is reached through CompiledScript or Resolver without main
+        if (out != null) out.flush();
+        System.err.println(ErrorReporter.format(line, where, message));
         hadError = true;
     }
 
     static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
-        }
+        REPORTER.error(token, message);
     }
 
-
     static void runtimeError(RuntimeError error) {
+        if (Metrics.enabled) Metrics.runtimeError();
+        Events.RuntimeError event = new Events.RuntimeError();
+        if (event.shouldCommit()) {
+            event.line = error.token.line;
+            event.message = error.getMessage();
+            event.commit();
+        }
+
+        if (out != null) out.flush();
         System.err.println(error.getMessage() +
                 "\n[line " + error.token.line + "]");
         hadRuntimeError = true;
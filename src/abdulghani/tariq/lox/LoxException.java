@@ -0,0 +1,23 @@
+package abdulghani.tariq.lox;
+
+import java.util.List;
+
+/**
+ * Thrown by the embedding API when a script doesn't compile or fails at runtime.
+ */
+public class LoxException extends RuntimeException {
+    private final List<String> errors;
+
+    LoxException(String message, List<String> errors) {
+        super(message);
+        this.errors = List.copyOf(errors);
+    }
+
+    /**
+     * Every error, "[line 3] Error at 'x': ..." for compile errors and
+     * "message\n[line 3]" for the runtime error, the same text the command line prints.
+     */
+    public List<String> errors() {
+        return errors;
+    }
+}
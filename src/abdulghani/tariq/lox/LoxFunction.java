@@ -0,0 +1,39 @@
+package abdulghani.tariq.lox;
+
+import java.util.List;
+
+/**
+ * A function declared in a script, its declaration plus the flat frame of variables it
+ * captured, see {@link Resolver}.
+ * Calls from the interpreter skip {@link #call} and bind the arguments straight into a
+ * new frame, see {@link Interpreter#visitCallExpr}.
+ */
+class LoxFunction implements LoxCallable {
+    final Stmt.Function declaration;
+    final Frame captures; // null when the body uses no outer local variables
+
+    LoxFunction(Stmt.Function declaration, Frame captures) {
+        this.declaration = declaration;
+        this.captures = captures;
+    }
+
+    @Override
+    public int arity() {
+        return declaration.params.size();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        Frame frame = new Frame(captures, declaration.slotCount);
+        for (int i = 0; i < arguments.size(); i++) {
+            frame.set(0, i, arguments.get(i));
+        }
+        Object value = interpreter.invoke(this, frame);
+        return value == Frame.UNBOXED ? (Object) interpreter.number : value;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + declaration.name.lexeme + ">";
+    }
+}
@@ -0,0 +1,35 @@
+package abdulghani.tariq.lox;
+
+import java.util.Map;
+
+/**
+ * Interpreter counters published over JMX as abdulghani.tariq.lox:type=Metrics,
+ * registered when Lox runs with --metrics.
+ */
+public interface LoxMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /** Executed statements keyed by Stmt subclass, e.g. "while". */
+    Map<String, Long> getStatementsExecuted();
+
+    long getFramesCreated();
+
+    long getEnvironmentsCreated();
+
+    /** Scopes walked per variable lookup, through frames for locals and environments for globals. */
+    double getAverageChainDepth();
+
+    long getMaxChainDepth();
+
+    long getNumbersBoxed();
+
+    long getStringsConcatenated();
+
+    long getPrintBytes();
+
+    long getRuntimeErrors();
+
+    void reset();
+}
@@ -0,0 +1,191 @@
+package abdulghani.tariq.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Map;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/**
+ * JSR-223 engine over {@link CompiledScript} and {@link ExecutionContext}.
+ * Sources are compiled through the factory's {@link ScriptCache}. Every evaluation runs in a
+ * fresh ExecutionContext whose globals are the global scope bindings overridden by the engine
+ * scope bindings, after the run every Lox global is written back to the engine scope.
+ * Print statements go to the context's writer, eval always returns null since a Lox program
+ * is a list of statements. Functions a script declares land in the engine scope too and
+ * {@link #invokeFunction} calls them the same way, in a fresh context over the bindings.
+ */
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+    private final LoxScriptEngineFactory factory;
+
+    LoxScriptEngine(LoxScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return eval(compiled(script), context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    @Override
+    public javax.script.CompiledScript compile(String script) throws ScriptException {
+        return new Compiled(compiled(script));
+    }
+
+    @Override
+    public javax.script.CompiledScript compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    /**
+     * Calls a global function declared by an earlier eval, arguments and result cross as
+     * Java values the same way bindings do.
+     */
+    @Override
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
+        ScriptContext context = getContext();
+        Object function = context.getAttribute(name);
+        if (!(function instanceof LoxCallable)) {
+            throw new NoSuchMethodException("Lox has no function " + name + ".");
+        }
+
+        ExecutionContext execution = execution(context);
+        try {
+            return execution.call((LoxCallable) function, Arrays.asList(args));
+        } catch (IllegalArgumentException e) {
+            throw new ScriptException(e.getMessage());
+        } catch (LoxException e) {
+            throw scriptException(e);
+        } finally {
+            writeBack(execution, context);
+        }
+    }
+
+    // Lox has no objects yet, there is nothing to invoke a method on
+    @Override
+    public Object invokeMethod(Object thiz, String name, Object... args) throws NoSuchMethodException {
+        throw new NoSuchMethodException("Lox has no method " + name + ".");
+    }
+
+    @Override
+    public <T> T getInterface(Class<T> clasz) {
+        return null;
+    }
+
+    @Override
+    public <T> T getInterface(Object thiz, Class<T> clasz) {
+        return null;
+    }
+
+    private CompiledScript compiled(String source) throws ScriptException {
+        try {
+            return factory.cache().compile(source);
+        } catch (LoxException e) {
+            throw scriptException(e);
+        }
+    }
+
+    private Object eval(CompiledScript script, ScriptContext context) throws ScriptException {
+        ExecutionContext execution = execution(context);
+        try {
+            script.run(execution);
+        } catch (LoxException e) {
+            throw scriptException(e);
+        } finally {
+            writeBack(execution, context);
+        }
+        return null;
+    }
+
+    // globals are the global scope bindings overridden by the engine scope bindings
+    private static ExecutionContext execution(ScriptContext context) throws ScriptException {
+        ExecutionContext execution = new ExecutionContext(context.getWriter());
+        Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+        Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        try {
+            if (global != null) define(execution, global);
+            if (engine != null) define(execution, engine);
+        } catch (IllegalArgumentException e) {
+            throw new ScriptException(e.getMessage());
+        }
+        return execution;
+    }
+
+    // also after a runtime error, like the globals of a command line run
+    private static void writeBack(ExecutionContext execution, ScriptContext context) {
+        Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (engine == null) return;
+        Map<String, Object> globals = execution.globals();
+        synchronized (engine) {
+            engine.putAll(globals);
+        }
+    }
+
+    // the lock keeps engines that share bindings on several threads from racing on them
+    private static void define(ExecutionContext execution, Bindings bindings) {
+        synchronized (bindings) {
+            for (Map.Entry<String, Object> entry : bindings.entrySet()) {
+                execution.define(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static ScriptException scriptException(LoxException e) {
+        ScriptException exception = new ScriptException(String.join("\n", e.errors()));
+        exception.initCause(e);
+        return exception;
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder source = new StringBuilder();
+        char[] buffer = new char[8192];
+        try {
+            for (int read; (read = reader.read(buffer)) != -1; ) {
+                source.append(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return source.toString();
+    }
+
+    private final class Compiled extends javax.script.CompiledScript {
+        private final CompiledScript script;
+
+        Compiled(CompiledScript script) {
+            this.script = script;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            return LoxScriptEngine.this.eval(script, context);
+        }
+
+        @Override
+        public LoxScriptEngine getEngine() {
+            return LoxScriptEngine.this;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package abdulghani.tariq.lox;
+
+import java.util.List;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * JSR-223 factory, found by ScriptEngineManager through META-INF/services under the names
+ * "lox" and "Lox" and the extension ".lox".
+ * Its engines share one {@link ScriptCache}, sized by the lox.scriptCache.size system
+ * property, 512 scripts by default, 0 turns caching off.
+ */
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+    static final int DEFAULT_CACHE_SIZE = 512;
+
+    private static final List<String> NAMES = List.of("lox", "Lox");
+    private static final List<String> EXTENSIONS = List.of("lox");
+    private static final List<String> MIME_TYPES = List.of("application/x-lox");
+
+    private final ScriptCache cache;
+
+    public LoxScriptEngineFactory() {
+        this(Integer.getInteger("lox.scriptCache.size", DEFAULT_CACHE_SIZE));
+    }
+
+    public LoxScriptEngineFactory(int cacheSize) {
+        this.cache = new ScriptCache(cacheSize);
+    }
+
+    public ScriptCache cache() {
+        return cache;
+    }
+
+    @Override
+    public String getEngineName() {
+        return "Lox";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return Lox.VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return EXTENSIONS;
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return MIME_TYPES;
+    }
+
+    @Override
+    public List<String> getNames() {
+        return NAMES;
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "Lox";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return Lox.VERSION;
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        if (key == null) return null; // a switch on null throws
+        switch (key) {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.NAME: return NAMES.get(0);
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            // compiled scripts are shared, every evaluation runs in its own ExecutionContext
+            case "THREADING": return "MULTITHREADED";
+            default: return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        return obj + "." + m + "(" + String.join(", ", args) + ")";
+    }
+
+    // Lox strings have no escapes, a quote in toDisplay can't be printed this way
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print \"" + toDisplay + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder program = new StringBuilder();
+        for (String statement : statements) {
+            program.append(statement);
+            String trimmed = statement.trim();
+            if (!trimmed.endsWith(";") && !trimmed.endsWith("}")) program.append(';');
+            program.append('\n');
+        }
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new LoxScriptEngine(this);
+    }
+}
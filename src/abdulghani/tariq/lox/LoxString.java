@@ -0,0 +1,96 @@
+package abdulghani.tariq.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * String value built by concatenation, a rope whose leaves are java Strings.
+ * Concatenating is O(1), the characters are copied only once the string is
+ * printed, compared or hashed and the flat result is kept for later uses.
+ * Short results are concatenated eagerly since a node would cost more than the copy.
+ */
+final class LoxString implements CharSequence {
+    private static final int EAGER_LENGTH = 32;
+
+    private CharSequence left; // null once flattened
+    private CharSequence right;
+    private String flat;
+    private final int length;
+
+    private LoxString(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    /**
+     * Both operands must be strings, see {@link Values#isString}.
+     */
+    static Object concat(Object left, Object right) {
+        CharSequence a = (CharSequence) left;
+        CharSequence b = (CharSequence) right;
+        if (Metrics.enabled) Metrics.concatenated();
+        if (a.length() == 0) return b;
+        if (b.length() == 0) return a;
+        if (a.length() + b.length() <= EAGER_LENGTH) {
+            return a.toString() + b;
+        }
+        return new LoxString(a, b);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) flatten();
+        return flat;
+    }
+
+    // iterative, repeated appends build ropes far deeper than the Java stack
+    private void flatten() {
+        StringBuilder builder = new StringBuilder(length);
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(right);
+        pending.push(left);
+
+        while (!pending.isEmpty()) {
+            CharSequence part = pending.pop();
+            if (part instanceof LoxString && ((LoxString) part).flat == null) {
+                LoxString rope = (LoxString) part;
+                pending.push(rope.right);
+                pending.push(rope.left);
+            } else {
+                builder.append(part.toString());
+            }
+        }
+
+        flat = builder.toString();
+        left = null;
+        right = null;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof LoxString)) return false;
+        return toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -0,0 +1,109 @@
+package abdulghani.tariq.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Script source read through a memory mapped file instead of a String on the heap.
+ * Pure ASCII files, which is nearly every generated script, are scanned straight from the
+ * mapping, one byte per char, and only the lexemes the parser asks for are copied.
+ * Files with other UTF-8 text are decoded once, chunk by chunk, into a char buffer.
+ */
+final class MappedSource implements CharSequence {
+    private static final int DECODE_CHUNK = 64 * 1024;
+
+    private final ByteBuffer bytes; // set for ASCII sources
+    private final CharBuffer chars; // set for decoded sources
+    private final int length;
+    private final int byteLength; // size of the file
+
+    private MappedSource(ByteBuffer bytes, CharBuffer chars, int length, int byteLength) {
+        this.bytes = bytes;
+        this.chars = chars;
+        this.length = length;
+        this.byteLength = byteLength;
+    }
+
+    static MappedSource open(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Script is too large: " + path);
+            }
+            // the mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (isAscii(mapped)) {
+            return new MappedSource(mapped, null, mapped.limit(), mapped.limit());
+        }
+        CharBuffer decoded = decode(mapped);
+        return new MappedSource(null, decoded, decoded.limit(), mapped.limit());
+    }
+
+    private static boolean isAscii(ByteBuffer buffer) {
+        for (int i = 0, n = buffer.limit(); i < n; i++) {
+            if (buffer.get(i) < 0) return false;
+        }
+        return true;
+    }
+
+    private static CharBuffer decode(ByteBuffer buffer) throws CharacterCodingException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // UTF-8 never needs more chars than bytes
+        CharBuffer out = CharBuffer.allocate(buffer.limit());
+        ByteBuffer in = buffer.duplicate();
+
+        for (int position = 0; position < buffer.limit(); position += DECODE_CHUNK) {
+            int end = Math.min(buffer.limit(), position + DECODE_CHUNK);
+            // bytes of a character split across chunks stay in the input for the next round
+            in.limit(end);
+            CoderResult result = decoder.decode(in, out, end == buffer.limit());
+            if (result.isError()) result.throwException();
+        }
+        decoder.flush(out);
+        out.flip();
+        return out;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    int byteLength() {
+        return byteLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (bytes != null) return (char) bytes.get(index);
+        return chars.get(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (chars != null) return chars.subSequence(start, end).toString();
+
+        byte[] slice = new byte[end - start];
+        bytes.get(start, slice);
+        return new String(slice, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+}
@@ -0,0 +1,148 @@
+package abdulghani.tariq.lox;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live interpreter counters behind {@link LoxMetricsMXBean}.
+ * Counting happens on the hot paths, so every site checks {@link #enabled} first, a plain
+ * load when counting is off, and the counters are striped LongAdders so threads running
+ * scripts concurrently don't contend on one cache line.
+ */
+final class Metrics implements LoxMetricsMXBean {
+    static final Metrics INSTANCE = new Metrics();
+
+    static volatile boolean enabled = false;
+
+    private static final Map<String, LongAdder> STATEMENTS = new ConcurrentHashMap<>();
+    private static final ClassValue<LongAdder> STATEMENT_COUNTER = new ClassValue<>() {
+        @Override
+        protected LongAdder computeValue(Class<?> type) {
+            return STATEMENTS.computeIfAbsent(
+                    type.getSimpleName().toLowerCase(Locale.ROOT), name -> new LongAdder());
+        }
+    };
+
+    private static final LongAdder FRAMES = new LongAdder();
+    private static final LongAdder ENVIRONMENTS = new LongAdder();
+    private static final LongAdder LOOKUPS = new LongAdder();
+    private static final LongAdder CHAIN_DEPTH = new LongAdder();
+    private static final LongAccumulator MAX_CHAIN_DEPTH = new LongAccumulator(Math::max, 0);
+    private static final LongAdder BOXES = new LongAdder();
+    private static final LongAdder CONCATENATIONS = new LongAdder();
+    private static final LongAdder PRINT_BYTES = new LongAdder();
+    private static final LongAdder RUNTIME_ERRORS = new LongAdder();
+
+    private Metrics() {}
+
+    // hot path hooks, callers check enabled
+    static void statement(Stmt stmt) {
+        STATEMENT_COUNTER.get(stmt.getClass()).increment();
+    }
+
+    static void frame() {
+        FRAMES.increment();
+    }
+
+    static void environment() {
+        ENVIRONMENTS.increment();
+    }
+
+    static void chainDepth(int depth) {
+        LOOKUPS.increment();
+        CHAIN_DEPTH.add(depth);
+        MAX_CHAIN_DEPTH.accumulate(depth);
+    }
+
+    static void boxed() {
+        BOXES.increment();
+    }
+
+    static void concatenated() {
+        CONCATENATIONS.increment();
+    }
+
+    static void printed(int bytes) {
+        PRINT_BYTES.add(bytes);
+    }
+
+    static void runtimeError() {
+        RUNTIME_ERRORS.increment();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    @Override
+    public Map<String, Long> getStatementsExecuted() {
+        Map<String, Long> counts = new TreeMap<>();
+        STATEMENTS.forEach((name, count) -> counts.put(name, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public long getFramesCreated() {
+        return FRAMES.sum();
+    }
+
+    @Override
+    public long getEnvironmentsCreated() {
+        return ENVIRONMENTS.sum();
+    }
+
+    @Override
+    public double getAverageChainDepth() {
+        long lookups = LOOKUPS.sum();
+        return lookups == 0 ? 0 : (double) CHAIN_DEPTH.sum() / lookups;
+    }
+
+    @Override
+    public long getMaxChainDepth() {
+        return MAX_CHAIN_DEPTH.get();
+    }
+
+    @Override
+    public long getNumbersBoxed() {
+        return BOXES.sum();
+    }
+
+    @Override
+    public long getStringsConcatenated() {
+        return CONCATENATIONS.sum();
+    }
+
+    @Override
+    public long getPrintBytes() {
+        return PRINT_BYTES.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return RUNTIME_ERRORS.sum();
+    }
+
+    @Override
+    public void reset() {
+        STATEMENTS.values().forEach(LongAdder::reset);
+        FRAMES.reset();
+        ENVIRONMENTS.reset();
+        LOOKUPS.reset();
+        CHAIN_DEPTH.reset();
+        MAX_CHAIN_DEPTH.reset();
+        BOXES.reset();
+        CONCATENATIONS.reset();
+        PRINT_BYTES.reset();
+        RUNTIME_ERRORS.reset();
+    }
+}
@@ -0,0 +1,38 @@
+package abdulghani.tariq.lox;
+
+import java.util.List;
+
+/**
+ * Functions implemented in Java, defined in the interpreter's globals before a script runs.
+ * The VM and the --jvm engine share those globals and get them from there.
+ */
+final class Natives {
+
+    private Natives() {
+    }
+
+    static final LoxCallable CLOCK = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return System.currentTimeMillis() / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    };
+
+    static void define(Environment globals) {
+        globals.define("clock", CLOCK);
+    }
+
+    static boolean isNative(Object value) {
+        return value == CLOCK;
+    }
+}
@@ -0,0 +1,41 @@
+package abdulghani.tariq.lox;
+
+/**
+ * Instruction set of the bytecode {@link VM}.
+ * Operands follow the opcode as unsigned 16 bit big endian values.
+ */
+final class OpCode {
+    private OpCode() {
+    }
+
+    static final byte CONSTANT = 0;      // index -> push constants[index]
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+
+    static final byte GET_LOCAL = 5;     // local index
+    static final byte SET_LOCAL = 6;     // local index, leaves value on stack
+    static final byte GET_GLOBAL = 7;    // constant index of the name token
+    static final byte DEFINE_GLOBAL = 8; // constant index of the name token
+    static final byte SET_GLOBAL = 9;    // constant index of the name token, leaves value on stack
+
+    static final byte EQUAL = 10;
+    static final byte NOT_EQUAL = 11;
+    static final byte GREATER = 12;
+    static final byte GREATER_EQUAL = 13;
+    static final byte LESS = 14;
+    static final byte LESS_EQUAL = 15;
+    static final byte ADD = 16;
+    static final byte SUBTRACT = 17;
+    static final byte MULTIPLY = 18;
+    static final byte DIVIDE = 19;
+    static final byte NOT = 20;
+    static final byte NEGATE = 21;
+
+    static final byte PRINT = 22;
+    static final byte JUMP = 23;          // forward offset
+    static final byte JUMP_IF_FALSE = 24; // forward offset, condition stays on stack
+    static final byte LOOP = 25;          // backward offset
+    static final byte RETURN = 26;
+}
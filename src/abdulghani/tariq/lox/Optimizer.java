@@ -0,0 +1,371 @@
+package abdulghani.tariq.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites parsed statements before they are resolved:
+ * folds constant arithmetic, comparisons and logical operators, drops grouping wrappers,
+ * prunes if branches and while loops whose condition is constant and drops expression
+ * statements without side effects.
+ * Folding only happens when the operand types are the ones the operator accepts, a
+ * program that fails at runtime keeps failing the same way.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private int nodesRemoved = 0;
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        int before = NodeCounter.count(statements);
+
+        List<Stmt> optimized = optimizeAll(statements);
+
+        nodesRemoved += before - NodeCounter.count(optimized);
+        return optimized;
+    }
+
+    int nodesRemoved() {
+        return nodesRemoved;
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            Stmt stmt = optimize(statement);
+            if (stmt != null) optimized.add(stmt);
+        }
+        return optimized;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private static boolean isConstant(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    private static Object valueOf(Expr expr) {
+        return ((Expr.Literal) expr).value;
+    }
+
+    /**
+     * True when evaluating the expression can't print, assign, fail or loop.
+     * Variables are not pure since reading an undefined global is a runtime error.
+     */
+    private static boolean isPure(Expr expr) {
+        if (expr instanceof Expr.Literal) return true;
+        if (expr instanceof Expr.Grouping) return isPure(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            return isPure(logical.left) && isPure(logical.right);
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            return unary.operator.type == TokenType.BANG && isPure(unary.right);
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            TokenType type = binary.operator.type;
+            return (type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL)
+                    && isPure(binary.left) && isPure(binary.right);
+        }
+        return false;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        return value == expr.value ? expr : new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (isConstant(left) && isConstant(right)) {
+            Expr.Literal folded = fold(expr.operator.type, valueOf(left), valueOf(right));
+            if (folded != null) return folded;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    private static Expr.Literal fold(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case BANG_EQUAL: return new Expr.Literal(!Values.isEqual(left, right));
+            case EQUAL_EQUAL: return new Expr.Literal(Values.isEqual(left, right));
+            case PLUS:
+                if (left instanceof String && right instanceof String) {
+                    return new Expr.Literal((String) left + (String) right);
+                }
+                break;
+        }
+
+        if (!(left instanceof Double && right instanceof Double)) return null;
+        double a = (double) left;
+        double b = (double) right;
+
+        switch (operator) {
+            case GREATER: return new Expr.Literal(a > b);
+            case GREATER_EQUAL: return new Expr.Literal(a >= b);
+            case LESS: return new Expr.Literal(a < b);
+            case LESS_EQUAL: return new Expr.Literal(a <= b);
+            case MINUS: return new Expr.Literal(a - b);
+            case SLASH: return new Expr.Literal(a / b);
+            case STAR: return new Expr.Literal(a * b);
+            case PLUS: return new Expr.Literal(a + b);
+        }
+        return null;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // the tree already encodes precedence, the wrapper does nothing at runtime
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (isConstant(left)) {
+            boolean truthy = Values.isTruthy(valueOf(left));
+            if (expr.operator.type == TokenType.OR) {
+                return truthy ? left : right;
+            }
+            return truthy ? right : left;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (isConstant(right)) {
+            Object value = valueOf(right);
+            switch (expr.operator.type) {
+                case BANG:
+                    return new Expr.Literal(!Values.isTruthy(value));
+                case MINUS:
+                    if (value instanceof Double) return new Expr.Literal(-(double) value);
+                    break;
+            }
+        }
+
+        return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        boolean changed = callee != expr.callee;
+
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            Expr optimized = optimize(argument);
+            changed |= optimized != argument;
+            arguments.add(optimized);
+        }
+        return changed ? new Expr.Call(callee, expr.paren, arguments) : expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    // rewritten statements keep the line of the original
+    private static <T extends Stmt> T at(Stmt original, T stmt) {
+        stmt.line = original.line;
+        return stmt;
+    }
+
+    // statements, null means the statement was removed
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        return statements.isEmpty() ? null : at(stmt, new Stmt.Block(statements));
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (isPure(expression)) return null;
+        return expression == stmt.expression ? stmt : at(stmt, new Stmt.Expression(expression));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        // kept even with an empty body, the declaration defines the name
+        return at(stmt, new Stmt.Function(stmt.name, stmt.params, optimizeAll(stmt.body)));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+        Expr value = optimize(stmt.value);
+        return value == stmt.value ? stmt : at(stmt, new Stmt.Return(stmt.keyword, value));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = optimize(stmt.elseBranch);
+
+        if (isConstant(condition)) {
+            return Values.isTruthy(valueOf(condition)) ? thenBranch : elseBranch;
+        }
+
+        if (thenBranch == null) thenBranch = at(stmt, new Stmt.Block(new ArrayList<>()));
+        return at(stmt, new Stmt.If(condition, thenBranch, elseBranch));
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        return expression == stmt.expression ? stmt : at(stmt, new Stmt.Print(expression));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+        Expr initializer = optimize(stmt.initializer);
+        return initializer == stmt.initializer ? stmt : at(stmt, new Stmt.Var(stmt.name, initializer));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if (isConstant(condition) && !Values.isTruthy(valueOf(condition))) {
+            return null;
+        }
+
+        Stmt body = optimize(stmt.body);
+        if (body == null) body = at(stmt, new Stmt.Block(new ArrayList<>()));
+        return at(stmt, new Stmt.While(condition, body));
+    }
+
+    /**
+     * Counts Stmt and Expr nodes, used to report what the optimizer removed.
+     */
+    private static class NodeCounter implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private static final NodeCounter INSTANCE = new NodeCounter();
+
+        static int count(List<Stmt> statements) {
+            int count = 0;
+            for (Stmt statement : statements) {
+                count += INSTANCE.count(statement);
+            }
+            return count;
+        }
+
+        private int count(Stmt stmt) {
+            return stmt == null ? 0 : stmt.accept(this);
+        }
+
+        private int count(Expr expr) {
+            return expr == null ? 0 : expr.accept(this);
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            return 1 + count(expr.value);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            return 1 + count(expr.left) + count(expr.right);
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            return 1 + count(expr.expression);
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            return 1 + count(expr.left) + count(expr.right);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            return 1 + count(expr.right);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int count = 1 + count(expr.callee);
+            for (Expr argument : expr.arguments) {
+                count += count(argument);
+            }
+            return count;
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            return 1 + count(stmt.statements);
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            return 1 + count(stmt.expression);
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            return 1 + count(stmt.body);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            return 1 + count(stmt.value);
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            return 1 + count(stmt.condition) + count(stmt.thenBranch) + count(stmt.elseBranch);
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            return 1 + count(stmt.expression);
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            return 1 + count(stmt.initializer);
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            return 1 + count(stmt.condition) + count(stmt.body);
+        }
+    }
+}
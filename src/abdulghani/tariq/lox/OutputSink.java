@@ -0,0 +1,108 @@
+package abdulghani.tariq.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Buffered destination of print statements.
+ * Lines are collected in memory and encoded straight into a reusable byte buffer,
+ * so a flush is one write to the underlying channel instead of a locked println per line.
+ * Anyone writing to stderr must call {@link #flush()} first to keep the two streams in order.
+ * A sink over a Writer, which does its own encoding, hands it the collected text instead.
+ */
+class OutputSink {
+    enum FlushPolicy {
+        PER_LINE,  // interactive use, every line shows up immediately
+        THRESHOLD, // flush once the buffered text reaches the threshold
+        ON_EXIT    // flush only when asked to, or when the buffer hits its hard limit
+    }
+
+    static final int DEFAULT_THRESHOLD = 64 * 1024;
+    private static final int ON_EXIT_LIMIT = 8 * 1024 * 1024; // bounds memory of huge outputs
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final OutputStream stream;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes;
+    private final Writer writer; // null when writing to a stream
+    private final StringBuilder pending = new StringBuilder();
+
+    private final FlushPolicy policy;
+    private final int threshold;
+
+    OutputSink(OutputStream out, FlushPolicy policy, int threshold) {
+        this.stream = out;
+        this.channel = Channels.newChannel(out);
+        this.encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate(16 * 1024);
+        this.writer = null;
+        this.policy = policy;
+        this.threshold = policy == FlushPolicy.ON_EXIT ? ON_EXIT_LIMIT : threshold;
+    }
+
+    OutputSink(OutputStream out, FlushPolicy policy) {
+        this(out, policy, DEFAULT_THRESHOLD);
+    }
+
+    OutputSink(Writer out, FlushPolicy policy) {
+        this.stream = null;
+        this.channel = null;
+        this.encoder = null;
+        this.bytes = null;
+        this.writer = out;
+        this.policy = policy;
+        this.threshold = policy == FlushPolicy.ON_EXIT ? ON_EXIT_LIMIT : DEFAULT_THRESHOLD;
+    }
+
+    void println(String line) {
+        pending.append(line).append(LINE_SEPARATOR);
+
+        if (policy == FlushPolicy.PER_LINE || pending.length() >= threshold) {
+            flush();
+        }
+    }
+
+    void flush() {
+        if (pending.length() == 0) return;
+
+        try {
+            if (writer != null) {
+                writer.append(pending);
+                writer.flush();
+                if (Metrics.enabled) Metrics.printed(pending.length()); // chars, the writer encodes
+                return;
+            }
+
+            CharBuffer chars = CharBuffer.wrap(pending);
+            encoder.reset();
+            boolean done = false;
+            while (!done) {
+                done = !encoder.encode(chars, bytes, true).isOverflow()
+                        && !encoder.flush(bytes).isOverflow();
+                bytes.flip();
+                while (bytes.hasRemaining()) {
+                    int written = channel.write(bytes);
+                    if (Metrics.enabled) Metrics.printed(written);
+                }
+                bytes.clear();
+            }
+            stream.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            pending.setLength(0);
+        }
+    }
+}
@@ -1,9 +1,23 @@
 package abdulghani.tariq.lox;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
 import static abdulghani.tariq.lox.TokenType.*;
 
+/**
+ * Functions
+ *
+ * declaration    → funDecl
+ *                | varDecl
+ *                | statement ;
+ * funDecl        → "fun" IDENTIFIER "(" parameters? ")" block ;
+ * parameters     → IDENTIFIER ( "," IDENTIFIER )* ;
+ * returnStmt     → "return" expression? ";" ;
+ * call           → primary ( "(" arguments? ")" )* ;
+ * arguments      → expression ( "," expression )* ;
+ */
+
 /**
  * Looping
  *
@@ -101,17 +115,78 @@ import static abdulghani.tariq.lox.TokenType.*;
  */
 public class Parser {
 
-    private final List<Token> tokens;
+    private final TokenBuffer tokens;
+    private final ErrorReporter reporter;
     private int current = 0;
+    private int errors = 0;
 
     private static class ParseError extends RuntimeException {}
 
+    // binding power of infix operators, lowest first
+    private enum Precedence {
+        NONE, ASSIGNMENT, OR, AND, EQUALITY, COMPARISON, TERM, FACTOR, UNARY, CALL, PRIMARY;
+
+        Precedence next() {
+            return values()[ordinal() + 1];
+        }
+    }
+
+    private interface PrefixParselet {
+        Expr parse(Parser parser);
+    }
+
+    private interface InfixParselet {
+        Expr parse(Parser parser, Expr left);
+    }
+
+    // indexed by TokenType ordinal, a token with no infix parselet has Precedence.NONE
+    private static final PrefixParselet[] PREFIX = new PrefixParselet[TokenType.values().length];
+    private static final InfixParselet[] INFIX = new InfixParselet[TokenType.values().length];
+    private static final Precedence[] PRECEDENCE = new Precedence[TokenType.values().length];
+
+    private static final EnumSet<TokenType> STATEMENT_START =
+            EnumSet.of(CLASS, FUN, VAR, FOR, IF, WHILE, PRINT, RETURN);
+
+    static {
+        Arrays.fill(PRECEDENCE, Precedence.NONE);
+
+        prefix(EnumSet.of(FALSE, TRUE, NIL, NUMBER, STRING), Parser::literal);
+        prefix(EnumSet.of(IDENTIFIER), Parser::variable);
+        prefix(EnumSet.of(LEFT_PAREN), Parser::grouping);
+        prefix(EnumSet.of(BANG, MINUS), Parser::unary);
+
+        infix(EnumSet.of(EQUAL), Precedence.ASSIGNMENT, Parser::assignment);
+        infix(EnumSet.of(OR), Precedence.OR, Parser::logical);
+        infix(EnumSet.of(AND), Precedence.AND, Parser::logical);
+        infix(EnumSet.of(EQUAL_EQUAL, BANG_EQUAL), Precedence.EQUALITY, Parser::binary);
+        infix(EnumSet.of(LESS, LESS_EQUAL, GREATER, GREATER_EQUAL), Precedence.COMPARISON, Parser::binary);
+        infix(EnumSet.of(PLUS, MINUS), Precedence.TERM, Parser::binary);
+        infix(EnumSet.of(SLASH, STAR), Precedence.FACTOR, Parser::binary);
+        infix(EnumSet.of(LEFT_PAREN), Precedence.CALL, Parser::call);
+    }
+
+    private static void prefix(EnumSet<TokenType> types, PrefixParselet parselet) {
+        for (TokenType type : types) PREFIX[type.ordinal()] = parselet;
+    }
+
+    private static void infix(EnumSet<TokenType> types, Precedence precedence, InfixParselet parselet) {
+        for (TokenType type : types) {
+            INFIX[type.ordinal()] = parselet;
+            PRECEDENCE[type.ordinal()] = precedence;
+        }
+    }
+
 
     /**
      * Creates the AST for Lox grammar
      */
-    public Parser(List<Token> tokens) {
+    Parser(TokenBuffer tokens) {
+        this(tokens, Lox.REPORTER);
+    }
+
+    Parser(TokenBuffer tokens, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.reporter = reporter;
     }
 
 //    Expr parse() {
@@ -132,125 +207,150 @@ public class Parser {
     }
 
     private Expr expression() {
-//        return equality();
-        return assignment();
-
+        return parsePrecedence(Precedence.ASSIGNMENT);
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
-        while (match(EQUAL_EQUAL, BANG_EQUAL)){
-            Token operator = previous();
-            expr = new Expr.Binary(expr, operator, comparison());
-        }
-        return expr;
-    }
+    /**
+     * Pratt parser, one loop per precedence level instead of one method per grammar rule.
+     * The prefix parselet of the current token parses the left operand, then infix
+     * operators are folded in as long as they bind at least as tight as the given level.
+     */
+    private Expr parsePrecedence(Precedence precedence) {
+        PrefixParselet prefix = PREFIX[tokens.type(current).ordinal()];
+        if (prefix == null) throw error(peek(), "Expect expression.");
+        advance();
+        Expr left = prefix.parse(this);
 
-    private Expr comparison() {
-        Expr expr = term();
-        while (match(LESS, LESS_EQUAL, GREATER, GREATER_EQUAL)){
-            expr = new Expr.Binary(expr, previous(), term());
+        TokenType type = tokens.type(current);
+        while (precedence.ordinal() <= PRECEDENCE[type.ordinal()].ordinal()) {
+            advance();
+            left = INFIX[type.ordinal()].parse(this, left);
+            type = tokens.type(current);
         }
-        return expr;
+        return left;
     }
 
-    private Expr term(){
-        Expr expr = factor();
-        while (match(PLUS, MINUS)){
-            expr = new Expr.Binary(expr, previous(), factor());
+    // prefix parselets, the token is already consumed
+    private Expr literal() {
+        switch (tokens.type(current - 1)) {
+            case FALSE: return new Expr.Literal(false);
+            case TRUE: return new Expr.Literal(true);
+            case NIL: return new Expr.Literal(null);
+            default: return new Expr.Literal(tokens.literal(current - 1));
         }
-        return expr;
     }
 
-    private Expr factor(){
-        Expr expr = unary();
-        while (match(SLASH, STAR)){
-            expr = new Expr.Binary(expr, previous(), unary());
-        }
-        return expr;
+    private Expr variable() {
+        return new Expr.Variable(previous());
     }
 
-    /**
-     unary          → ( "!" | "-" ) unary
-     | primary ;
-     */
-    private Expr unary(){
-        if(match(BANG, MINUS)){
-            return new Expr.Unary(previous(), unary());
-        }else{
-            return primary();
-        }
+    private Expr grouping() {
+        Expr expr = expression();
+        consume(RIGHT_PAREN, "Expect ')' after expression.");
+        return new Expr.Grouping(expr);
     }
 
-    /**
-     primary        → NUMBER | STRING | "true" | "false" | "nil"
-     | "(" expression ")"
-     */
-    private Expr primary()  {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
+    // unary          → ( "!" | "-" ) unary | primary ;
+    private Expr unary() {
+        Token operator = previous();
+        return new Expr.Unary(operator, parsePrecedence(Precedence.UNARY));
+    }
 
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
+    // infix parselets, the operator is already consumed
+    private Expr binary(Expr left) {
+        Token operator = previous();
+        // left associative, the right operand only takes tighter operators
+        Expr right = parsePrecedence(PRECEDENCE[operator.type.ordinal()].next());
+        return new Expr.Binary(left, operator, right);
+    }
 
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
+    private Expr logical(Expr left) {
+        Token operator = previous();
+        Expr right = parsePrecedence(PRECEDENCE[operator.type.ordinal()].next());
+        return new Expr.Logical(left, operator, right);
+    }
 
-        if (match(LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
+    // call           → primary ( "(" arguments? ")" )* ;
+    private Expr call(Expr callee) {
+        List<Expr> arguments = new ArrayList<>();
+        if (!check(RIGHT_PAREN)) {
+            do {
+                if (arguments.size() >= 255) {
+                    error(peek(), "Can't have more than 255 arguments.");
+                }
+                arguments.add(expression());
+            } while (match(COMMA));
         }
 
-        throw error(peek(), "Expect expression.");
+        consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        return new Expr.Call(callee, previous(), arguments);
     }
 
+    // assignment     → IDENTIFIER "=" assignment | logic_or ;
+    private Expr assignment(Expr target) {
+        Token equals = previous();
+        // right associative, a = b = c
+        Expr value = parsePrecedence(Precedence.ASSIGNMENT);
 
-    // utils
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+        if (target instanceof Expr.Variable) {
+            Token name = ((Expr.Variable)target).name;
+            return new Expr.Assign(name, value);
         }
 
-        return false;
+        error(equals, "Invalid assignment target.");
+        return target;
+    }
+
+    // utils
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
+        advance();
+        return true;
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) current++;
-        return previous();
     }
 
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return tokens.type(current) == EOF;
     }
 
+    // peek and previous materialize a Token, only use them for tokens kept in the AST or errors
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
 
+    private static <T extends Stmt> T at(int line, T stmt) {
+        stmt.line = line;
+        return stmt;
+    }
+
+    int errorCount() {
+        return errors;
+    }
+
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        errors++;
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -258,19 +358,9 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == SEMICOLON) return;
-
-            switch (peek().type) {
-                case CLASS:
-                case FUN:
-                case VAR:
-                case FOR:
-                case IF:
-                case WHILE:
-                case PRINT:
-                case RETURN:
-                    return;
-            }
+            if (tokens.type(current - 1) == SEMICOLON) return;
+
+            if (STATEMENT_START.contains(tokens.type(current))) return;
 
             advance();
         }
@@ -281,8 +371,9 @@ public class Parser {
         if (match(FOR)) return forStatement();
         if (match(IF)) return ifStatement();
         if (match(PRINT)) return printStatement();
+        if (match(RETURN)) return returnStatement();
         if (match(WHILE)) return whileStatement();
-        if (match(LEFT_BRACE)) return new Stmt.Block(block());
+        if (match(LEFT_BRACE)) return at(tokens.line(current - 1), new Stmt.Block(block()));
 
         return expressionStatement();
     }
@@ -299,59 +390,33 @@ public class Parser {
     }
 
     private Stmt printStatement() {
+        int line = tokens.line(current - 1);
         Expr value = expression();
         consume(SEMICOLON, "Expect ';' after value.");
-        return new Stmt.Print(value);
-    }
-
-    private Stmt expressionStatement() {
-        Expr expr = expression();
-        consume(SEMICOLON, "Expect ';' after expression.");
-        return new Stmt.Expression(expr);
+        return at(line, new Stmt.Print(value));
     }
 
-    private Expr assignment() {
-        Expr expr = or();
-
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
-            }
-
-            error(equals, "Invalid assignment target.");
+    private Stmt returnStatement() {
+        Token keyword = previous();
+        Expr value = null;
+        if (!check(SEMICOLON)) {
+            value = expression();
         }
 
-        return expr;
-    }
-
-    // logic_or       → logic_and ( "or" logic_and )* ;
-    private Expr or(){
-        Expr left = and();
-        while (match(OR)){
-            Token operator = previous();
-            Expr right = and();
-            left = new Expr.Logical(left, operator, right);
-        }
-        return left;
+        consume(SEMICOLON, "Expect ';' after return value.");
+        return at(keyword.line, new Stmt.Return(keyword, value));
     }
 
-    // logic_and      → equality ( "and" equality )* ;
-    private Expr and(){
-        Expr expr = equality();
-        while (match(AND)){
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return  expr;
+    private Stmt expressionStatement() {
+        int line = tokens.line(current);
+        Expr expr = expression();
+        consume(SEMICOLON, "Expect ';' after expression.");
+        return at(line, new Stmt.Expression(expr));
     }
 
     private Stmt declaration() {
         try {
+            if (match(FUN)) return function();
             if (match(VAR)) return varDeclaration();
 
             return statement();
@@ -362,7 +427,9 @@ public class Parser {
     }
 
     private Stmt varDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect variable name.");
+        int line = tokens.line(current - 1);
+        consume(IDENTIFIER, "Expect variable name.");
+        Token name = previous();
 
         Expr initializer = null;
         if (match(EQUAL)) {
@@ -370,10 +437,34 @@ public class Parser {
         }
 
         consume(SEMICOLON, "Expect ';' after variable declaration.");
-        return new Stmt.Var(name, initializer);
+        return at(line, new Stmt.Var(name, initializer));
+    }
+
+    private Stmt function() {
+        int line = tokens.line(current - 1);
+        consume(IDENTIFIER, "Expect function name.");
+        Token name = previous();
+
+        consume(LEFT_PAREN, "Expect '(' after function name.");
+        List<Token> parameters = new ArrayList<>();
+        if (!check(RIGHT_PAREN)) {
+            do {
+                if (parameters.size() >= 255) {
+                    error(peek(), "Can't have more than 255 parameters.");
+                }
+                consume(IDENTIFIER, "Expect parameter name.");
+                parameters.add(previous());
+            } while (match(COMMA));
+        }
+        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+
+        consume(LEFT_BRACE, "Expect '{' before function body.");
+        List<Stmt> body = block();
+        return at(line, new Stmt.Function(name, parameters, body));
     }
 
     private  Stmt ifStatement(){
+        int line = tokens.line(current - 1);
 
         consume(LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
@@ -385,19 +476,22 @@ public class Parser {
             elseBranch = statement();
         }
 
-        return new Stmt.If(condition, thenBranch, elseBranch);
+        return at(line, new Stmt.If(condition, thenBranch, elseBranch));
     }
 
     private Stmt whileStatement() {
+        int line = tokens.line(current - 1);
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after condition.");
         Stmt body = statement();
 
-        return new Stmt.While(condition, body);
+        return at(line, new Stmt.While(condition, body));
     }
 
     private Stmt forStatement() {
+        // the statements the loop is desugared into all belong to the line of the for
+        int line = tokens.line(current - 1);
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
         Stmt initializer;
         if (match(SEMICOLON)) {
@@ -424,19 +518,19 @@ public class Parser {
         Stmt body = statement();
 
         if (increment != null) {
-            body = new Stmt.Block(
+            body = at(line, new Stmt.Block(
                     Arrays.asList(
                             body,
-                            new Stmt.Expression(increment)));
+                            at(line, new Stmt.Expression(increment)))));
         }
 
 
         if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        body = at(line, new Stmt.While(condition, body));
 
 
         if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
+            body = at(line, new Stmt.Block(Arrays.asList(initializer, body)));
         }
 
 
@@ -0,0 +1,175 @@
+package abdulghani.tariq.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sampling profiler behind --profile.
+ * The {@link Interpreter} pushes every statement it executes on a stack kept here, a
+ * daemon thread wakes up every interval and records the statements on that stack.
+ * The report is written in the collapsed stack format flame graph tools read, one line
+ * per distinct stack with its sample count, plus a table of self and total samples per
+ * source line. Without --profile the interpreter has no Profiler and pays a null check.
+ */
+final class Profiler {
+    static final long DEFAULT_INTERVAL_NANOS = 1_000_000;
+
+    private static final VarHandle DEPTH;
+
+    static {
+        try {
+            DEPTH = MethodHandles.lookup().findVarHandle(Profiler.class, "depth", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final ClassValue<String> KIND = new ClassValue<>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return type.getSimpleName().toLowerCase(Locale.ROOT);
+        }
+    };
+
+    private final long intervalNanos;
+
+    // written by the interpreter thread only, read by the sampler
+    private volatile Stmt[] stack = new Stmt[64];
+    private int depth = 0;
+
+    // owned by the sampler thread until stop() joins it
+    private final Map<String, long[]> stacks = new HashMap<>();
+    private final Map<Integer, long[]> selfByLine = new HashMap<>();
+    private final Map<Integer, long[]> totalByLine = new HashMap<>();
+    private long samples = 0;
+
+    private Thread sampler;
+    private volatile boolean running;
+
+    Profiler(long intervalNanos) {
+        this.intervalNanos = intervalNanos;
+    }
+
+    void push(Stmt stmt) {
+        Stmt[] current = stack;
+        int top = depth;
+        if (top == current.length) {
+            current = Arrays.copyOf(current, top * 2);
+            stack = current;
+        }
+        current[top] = stmt;
+        // release, the sampler never sees a depth whose entry isn't written yet
+        DEPTH.setRelease(this, top + 1);
+    }
+
+    void pop() {
+        DEPTH.setRelease(this, depth - 1);
+    }
+
+    void start() {
+        running = true;
+        sampler = new Thread(this::sample, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(sampler);
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sample() {
+        StringBuilder key = new StringBuilder();
+        List<Integer> lines = new ArrayList<>();
+
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+
+            int top = (int) DEPTH.getAcquire(this);
+            Stmt[] current = stack;
+            if (top == 0 || top > current.length) continue;
+
+            key.setLength(0);
+            lines.clear();
+            Stmt innermost = null;
+            for (int i = 0; i < top; i++) {
+                Stmt stmt = current[i];
+                if (stmt == null) continue;
+                if (key.length() > 0) key.append(';');
+                key.append(KIND.get(stmt.getClass())).append(':').append(stmt.line);
+                if (!lines.contains(stmt.line)) lines.add(stmt.line);
+                innermost = stmt;
+            }
+            if (innermost == null) continue;
+
+            samples++;
+            stacks.computeIfAbsent(key.toString(), k -> new long[1])[0]++;
+            selfByLine.computeIfAbsent(innermost.line, k -> new long[1])[0]++;
+            for (Integer line : lines) {
+                totalByLine.computeIfAbsent(line, k -> new long[1])[0]++;
+            }
+        }
+    }
+
+    /**
+     * Collapsed stacks, "root;outer:line;inner:line count" per line.
+     */
+    void writeCollapsed(Path file, String root) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, long[]> entry : stacks.entrySet()) {
+                writer.write(root + ";" + entry.getKey() + " " + entry.getValue()[0] + "\n");
+            }
+        }
+    }
+
+    /**
+     * Lines sorted by self samples, each with its source text when it is known.
+     */
+    void printLines(PrintStream out, List<String> source) {
+        double millisPerSample = intervalNanos / 1e6;
+        out.printf(Locale.ROOT, "%d samples, one every %.3f ms%n", samples, millisPerSample);
+        out.printf(Locale.ROOT, "%6s %10s %7s %10s %7s  %s%n",
+                "line", "self", "self%", "total", "total%", "source");
+
+        List<Integer> lines = new ArrayList<>(totalByLine.keySet());
+        lines.sort((a, b) -> {
+            int bySelf = Long.compare(count(selfByLine, b), count(selfByLine, a));
+            return bySelf != 0 ? bySelf : Long.compare(count(totalByLine, b), count(totalByLine, a));
+        });
+
+        for (int line : lines) {
+            long self = count(selfByLine, line);
+            long total = count(totalByLine, line);
+            String text = line >= 1 && line <= source.size() ? source.get(line - 1).trim() : "";
+            out.printf(Locale.ROOT, "%6d %10d %6.1f%% %10d %6.1f%%  %s%n",
+                    line, self, percent(self), total, percent(total), text);
+        }
+    }
+
+    private static long count(Map<Integer, long[]> counts, int line) {
+        long[] count = counts.get(line);
+        return count == null ? 0 : count[0];
+    }
+
+    private double percent(long count) {
+        return samples == 0 ? 0 : count * 100.0 / samples;
+    }
+}
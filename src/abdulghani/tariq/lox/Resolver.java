@@ -0,0 +1,351 @@
+package abdulghani.tariq.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static pass that runs between the parser and the interpreter.
+ * It binds every local variable reference to a (depth, slot) pair where depth is
+ * the number of scopes between the reference and the declaring scope and slot is
+ * the index of the variable inside that scope. References that are not found in
+ * any local scope are left unresolved and looked up as globals at runtime.
+ * <p>
+ * It also does closure conversion. A function only sees the scopes of its own body,
+ * every variable of an enclosing function it uses becomes a capture, copied into a flat
+ * frame when the function is declared. That frame encloses the call frames, so a capture
+ * is addressed like any other local, one scope beyond the function's own. Captured
+ * variables that are assigned after their declaration are shared through a {@link Cell}.
+ */
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private static class Local {
+        final int slot;
+        final Stmt declaration; // a Var or a Function, for parameters the function declaring them
+        final int param; // index of the parameter, -1 for other variables
+        boolean defined = false; // false while its initializer is being resolved
+        boolean captured = false; // used by a function nested in the declaring one
+        boolean assigned = false; // assigned after its declaration
+        // references to it, flagged when it turns out to need a Cell
+        final List<Expr> uses = new ArrayList<>();
+
+        Local(int slot, Stmt declaration, int param) {
+            this.slot = slot;
+            this.declaration = declaration;
+            this.param = param;
+        }
+    }
+
+    // free variables of the function being resolved, null outside of functions
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        final int base; // index of the function's own scope in scopes
+        final Map<Local, Integer> captures = new HashMap<>();
+        // where each capture is copied from, relative to the scope declaring the function
+        final List<Integer> depths = new ArrayList<>();
+        final List<Integer> slots = new ArrayList<>();
+
+        FunctionScope(FunctionScope enclosing, int base) {
+            this.enclosing = enclosing;
+            this.base = base;
+        }
+    }
+
+    // innermost scope is the last one, global scope is not tracked
+    private final List<Map<String, Local>> scopes = new ArrayList<>();
+    private final ErrorReporter reporter;
+    private FunctionScope function = null; // a return outside of a function body is an error
+
+    Resolver() {
+        this(Lox.REPORTER);
+    }
+
+    Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        // same guard as Interpreter.execute, error recovery leaves nulls behind
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    // all references to a scope's variables are known once it ends
+    private void endScope() {
+        for (Local local : scopes.remove(scopes.size() - 1).values()) {
+            if (local.captured && local.assigned) toCell(local);
+        }
+    }
+
+    private static void toCell(Local local) {
+        for (Expr use : local.uses) {
+            if (use instanceof Expr.Variable) {
+                ((Expr.Variable) use).cell = true;
+            } else {
+                ((Expr.Assign) use).cell = true;
+            }
+        }
+
+        if (local.declaration instanceof Stmt.Var) {
+            ((Stmt.Var) local.declaration).cell = true;
+        } else if (local.param < 0) {
+            ((Stmt.Function) local.declaration).cell = true;
+        } else {
+            Stmt.Function declaration = (Stmt.Function) local.declaration;
+            int[] cellParams = new int[declaration.cellParams.length + 1];
+            System.arraycopy(declaration.cellParams, 0, cellParams, 0, declaration.cellParams.length);
+            cellParams[cellParams.length - 1] = local.slot;
+            declaration.cellParams = cellParams;
+        }
+    }
+
+    /**
+     * Adds the name to the innermost scope, returns null for globals.
+     */
+    private Local declare(Token name, Stmt declaration, int param) {
+        if (scopes.isEmpty()) return null;
+
+        Map<String, Local> scope = scopes.get(scopes.size() - 1);
+        if (scope.containsKey(name.lexeme)) {
+            reporter.error(name, "Already a variable with this name in this scope.");
+            return scope.get(name.lexeme);
+        }
+
+        Local local = new Local(scope.size(), declaration, param);
+        scope.put(name.lexeme, local);
+        return local;
+    }
+
+    private void define(Token name) {
+        if (scopes.isEmpty()) return;
+        scopes.get(scopes.size() - 1).get(name.lexeme).defined = true;
+    }
+
+    /**
+     * Finds the scope declaring the name and fills address with the (depth, slot) pair
+     * to reach it, returns null when it is a global.
+     */
+    private Local resolveLocal(Token name, int[] address) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Local local = scopes.get(i).get(name.lexeme);
+            if (local != null) {
+                address(function, scopes.size() - 1, local, i, address);
+                return local;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Address of a local declared in scope number declared as seen from scope number from,
+     * which is inside the given function. Variables of enclosing functions are captured.
+     */
+    private static void address(FunctionScope function, int from, Local local, int declared, int[] address) {
+        if (function == null || declared >= function.base) {
+            address[0] = from - declared;
+            address[1] = local.slot;
+        } else {
+            // the captures frame encloses the function's own frame
+            address[0] = from - function.base + 1;
+            address[1] = capture(function, local, declared);
+        }
+    }
+
+    private static int capture(FunctionScope function, Local local, int declared) {
+        Integer index = function.captures.get(local);
+        if (index != null) return index;
+
+        local.captured = true;
+        // the function is declared in the scope before its own, a variable of a function
+        // further out is captured by every function in between
+        int[] source = new int[2];
+        address(function.enclosing, function.base - 1, local, declared, source);
+        index = function.captures.size();
+        function.captures.put(local, index);
+        function.depths.add(source[0]);
+        function.slots.add(source[1]);
+        return index;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        if (values.isEmpty()) return Stmt.NONE;
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+
+        int[] address = new int[2];
+        Local local = resolveLocal(expr.name, address);
+        if (local != null) {
+            expr.depth = address[0];
+            expr.slot = address[1];
+            local.assigned = true;
+            local.uses.add(expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        int[] address = new int[2];
+        Local local = resolveLocal(expr.name, address);
+        if (local != null) {
+            if (address[0] == 0 && !local.defined) {
+                reporter.error(expr.name, "Can't read local variable in its own initializer.");
+            }
+            expr.depth = address[0];
+            expr.slot = address[1];
+            local.uses.add(expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        resolve(stmt.statements);
+        stmt.slotCount = scopes.get(scopes.size() - 1).size();
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    /**
+     * The name is defined before the body is resolved so the function can call itself.
+     * Parameters and the variables declared directly in the body share one scope, a call
+     * allocates a single frame of slotCount slots for them.
+     */
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        Local local = declare(stmt.name, stmt, -1);
+        stmt.slot = local == null ? -1 : local.slot;
+        define(stmt.name);
+
+        FunctionScope enclosing = function;
+        function = new FunctionScope(enclosing, scopes.size());
+        beginScope();
+        for (int i = 0; i < stmt.params.size(); i++) {
+            declare(stmt.params.get(i), stmt, i);
+            define(stmt.params.get(i));
+        }
+        resolve(stmt.body);
+        stmt.slotCount = scopes.get(scopes.size() - 1).size();
+        endScope();
+        stmt.captureDepths = toArray(function.depths);
+        stmt.captureSlots = toArray(function.slots);
+        function = enclosing;
+
+        // captures are copied before the name is bound, a function using its own name
+        // must see it through a Cell
+        if (local != null && local.captured) local.assigned = true;
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (function == null) {
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
+        }
+        if (stmt.value != null) {
+            resolve(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Local local = declare(stmt.name, stmt, -1);
+        stmt.slot = local == null ? -1 : local.slot;
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        define(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+}
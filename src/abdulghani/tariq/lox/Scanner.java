@@ -1,169 +1,169 @@
 package abdulghani.tariq.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static abdulghani.tariq.lox.TokenType.*;
 
+/**
+ * Table driven scanner.
+ * Every ASCII char maps to a character class in a 128 entry table and the class decides
+ * the transition, single char tokens come straight from a second table. Keywords are
+ * recognized by length and then char by char against the source, so scanning never
+ * allocates a String. Chars above ASCII only appear in identifiers, strings and comments
+ * and take the slow path through {@link Character}.
+ * Target throughput is 150 MB/s on an ASCII corpus of generated scripts, measured with
+ * ScannerBenchmark.
+ */
 public class Scanner {
 
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    // character classes
+    private static final byte INVALID = 0;
+    private static final byte SPACE = 1;
+    private static final byte NEWLINE = 2;
+    private static final byte DIGIT = 3;
+    private static final byte ALPHA = 4;
+    private static final byte QUOTE = 5;
+    private static final byte SINGLE = 6;   // token of its own
+    private static final byte WITH_EQ = 7;  // token that may be followed by '='
+    private static final byte SLASH_CLASS = 8; // division or comment
+
+    private static final byte[] CLASSES = new byte[128];
+    private static final TokenType[] SINGLE_TOKENS = new TokenType[128];
+    private static final TokenType[] EQ_TOKENS = new TokenType[128]; // the two char form
+
+    static {
+        CLASSES[' '] = SPACE;
+        CLASSES['\r'] = SPACE;
+        CLASSES['\t'] = SPACE;
+        CLASSES['\n'] = NEWLINE;
+        CLASSES['"'] = QUOTE;
+        CLASSES['/'] = SLASH_CLASS;
+        for (char c = '0'; c <= '9'; c++) CLASSES[c] = DIGIT;
+        for (char c = 'a'; c <= 'z'; c++) CLASSES[c] = ALPHA;
+        for (char c = 'A'; c <= 'Z'; c++) CLASSES[c] = ALPHA;
+
+        single('(', LEFT_PAREN);
+        single(')', RIGHT_PAREN);
+        single('{', LEFT_BRACE);
+        single('}', RIGHT_BRACE);
+        single(',', COMMA);
+        single('.', DOT);
+        single('-', MINUS);
+        single('+', PLUS);
+        single(';', SEMICOLON);
+        single('*', STAR);
+
+        withEq('!', BANG, BANG_EQUAL);
+        withEq('=', EQUAL, EQUAL_EQUAL);
+        withEq('<', LESS, LESS_EQUAL);
+        withEq('>', GREATER, GREATER_EQUAL);
+    }
+
+    private static void single(char c, TokenType type) {
+        CLASSES[c] = SINGLE;
+        SINGLE_TOKENS[c] = type;
+    }
+
+    private static void withEq(char c, TokenType type, TokenType withEqual) {
+        CLASSES[c] = WITH_EQ;
+        SINGLE_TOKENS[c] = type;
+        EQ_TOKENS[c] = withEqual;
+    }
+
+    private final CharSequence source;
+    private final int length;
+    private final TokenBuffer tokens;
+    private final ErrorReporter reporter;
 
     // where we are in the source
     private int start = 0; // start of current lexeme
     private int current = 0; // current char in lexeme
     private int line = 1; // line number
 
-    private static final HashMap<String, TokenType> reservedWords;
+    Scanner(CharSequence source) {
+        this(source, Lox.REPORTER);
+    }
 
-    static {
-//        AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
-//                PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
-        reservedWords = new HashMap<>();
-        reservedWords.put(AND.name(), AND);
-        reservedWords.put(CLASS.name(), CLASS);
-        reservedWords.put(ELSE.name(), ELSE);
-        reservedWords.put(FALSE.name(), FALSE);
-        reservedWords.put(FUN.name(), FUN);
-        reservedWords.put(FOR.name(), FOR);
-        reservedWords.put(IF.name(), IF);
-        reservedWords.put(NIL.name(), NIL);
-        reservedWords.put(OR.name(), OR);
-        reservedWords.put(PRINT.name(), PRINT);
-        reservedWords.put(RETURN.name(), RETURN);
-        reservedWords.put(SUPER.name(), SUPER);
-        reservedWords.put(THIS.name(), THIS);
-        reservedWords.put(TRUE.name(), TRUE);
-        reservedWords.put(VAR.name(), VAR);
-        reservedWords.put(WHILE.name(), WHILE);
-
-    }
-
-    Scanner(String source) {
+    Scanner(CharSequence source, ErrorReporter reporter) {
         this.source = source;
+        this.length = source.length();
+        this.tokens = new TokenBuffer(source);
+        this.reporter = reporter;
     }
 
-    List<Token> scanTokens() {
+    /**
+     * Scans the whole source into offsets, no lexeme is copied here.
+     */
+    TokenBuffer scan() {
         while (!isAtEnd()) {
             start = current;
             scanToken();
         }
         // not mandatory but make it clear where the end of file is
-        tokens.add(new Token(EOF, "", null, line));
+        tokens.add(EOF, current, 0, line);
         return tokens;
     }
 
+    List<Token> scanTokens() {
+        return scan().toList();
+    }
+
+    private static byte classOf(char c) {
+        if (c < 128) return CLASSES[c];
+        // outside ASCII only letters and digits mean something, both start identifiers
+        return Character.isAlphabetic(c) ? ALPHA : INVALID;
+    }
+
     private void scanToken() {
-        char c = advance();
-        switch (c) {
-            // LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
-            //    COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
-            case ',':
-                addToken(COMMA);
-                break;
-            case '.':
-                addToken(DOT);
-                break;
-            case '-':
-                addToken(MINUS);
-                break;
-            case '+':
-                addToken(PLUS);
-                break;
-            case ';':
-                addToken(SEMICOLON);
-                break;
-            case '*':
-                addToken(STAR);
-                break;
-            case '(':
-                addToken(LEFT_PAREN);
+        char c = source.charAt(current++);
+        switch (classOf(c)) {
+            case SPACE:
+                // runs of indentation are common, skip them without returning to scan()
+                while (current < length && source.charAt(current) == ' ') current++;
                 break;
-            case ')':
-                addToken(RIGHT_PAREN);
+            case NEWLINE:
+                line++;
                 break;
-            case '}':
-                addToken(RIGHT_BRACE);
+            case SINGLE:
+                addToken(SINGLE_TOKENS[c]);
                 break;
-            case '{':
-                addToken(LEFT_BRACE);
+            case WITH_EQ:
+                addToken(match('=') ? EQ_TOKENS[c] : SINGLE_TOKENS[c]);
                 break;
             // comments have // slash it needs to be considered
-            case '/':
+            case SLASH_CLASS:
                 if (match('/')) {
-                    while (!isAtEnd() && source.charAt(current) != '\n') advance();
+                    while (!isAtEnd() && source.charAt(current) != '\n') current++;
                 } else {
                     addToken(SLASH);
                 }
                 break;
-
-            case ' ':
-            case '\r':
-            case '\t':
-                break;
-
-            case '\n':
-                line++;
-                break;
-//                some logical operators
-            case '!':
-                addToken(match('=') ? BANG_EQUAL : BANG);
-                break;
-            case '=':
-                addToken(match('=') ? EQUAL_EQUAL : EQUAL);
-                break;
-            case '<':
-                addToken(match('=') ? LESS_EQUAL : LESS);
+            case QUOTE:
+                string();
                 break;
-            case '>':
-                addToken(match('=') ? GREATER_EQUAL : GREATER);
+            case DIGIT:
+                number();
                 break;
-
-            case '"':
-                string();
+            case ALPHA:
+                identifier();
                 break;
-
             default:
-                if (Character.isDigit(c)) {
-                    number();
-                } else if (Character.isAlphabetic(c)) {
-                    identifier();
-                } else Lox.error(line, "invalid input");
+                reporter.error(line, "invalid input");
                 break;
         }
     }
 
     // source traversal  utils
     private boolean isAtEnd() {
-        return current >= source.length();
-    }
-
-    /**
-     * Gets the next char in source
-     *
-     * @return char
-     */
-    private char advance() {
-        if (isAtEnd()) return '\0';
-        return source.charAt(current++);
+        return current >= length;
     }
 
     private void addToken(TokenType type) {
-        addToken(type, null);
-    }
-
-    private void addToken(TokenType type, Object literal) {
-        tokens.add(new Token(type, source.substring(start, current), literal, line));
+        tokens.add(type, start, current - start, line);
     }
 
     /**
      * match current char to given one which is according to implementation is look ahead;
-     *
-     * @param c
-     * @return
      */
     private boolean match(char c) {
         if (isAtEnd() || source.charAt(current) != c) return false;
@@ -181,49 +181,97 @@ public class Scanner {
         return source.charAt(current);
     }
 
+    private boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private boolean isIdentifierPart(char c) {
+        if (c < 128) {
+            byte charClass = CLASSES[c];
+            return charClass == ALPHA || charClass == DIGIT;
+        }
+        return Character.isAlphabetic(c) || Character.isDigit(c);
+    }
+
     //    long lexeme
     private void string() {
-        while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') line++;
-            advance();
+        while (!isAtEnd()) {
+            char c = source.charAt(current);
+            if (c == '"') break;
+            if (c == '\n') line++;
+            current++;
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
 
         // The closing ".
-        advance();
-
-        // Trim the surrounding quotes.
-        String value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        current++;
 
+        // the value without the quotes is made by TokenBuffer.literal when needed
+        addToken(STRING);
     }
 
     //    number 1234 12.34
     private void number() {
-        // while is digit advance
-        while (Character.isDigit(peek())) {
-            advance();
-        }
+        while (isDigit(peek())) current++;
         // if peek is dot advance
         if (peek() == '.') {
-            advance();
-            while (Character.isDigit(peek())) {
-                advance();
-            }
+            current++;
+            while (isDigit(peek())) current++;
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER);
     }
 
     //    identifier
     private void identifier() {
-        while (Character.isAlphabetic(peek()) || Character.isDigit(peek())) advance();
-        String lexeme = source.substring(start, current);
-        TokenType type =  reservedWords.get(lexeme.toUpperCase());
-        addToken(type != null? type: IDENTIFIER, lexeme);
+        while (!isAtEnd() && isIdentifierPart(source.charAt(current))) current++;
+        addToken(keyword(start, current - start));
+    }
+
+    /**
+     * Switch on length then compare in place, keywords match in any letter case.
+     */
+    private TokenType keyword(int start, int length) {
+        switch (length) {
+            case 2:
+                if (is(start, "if")) return IF;
+                if (is(start, "or")) return OR;
+                break;
+            case 3:
+                if (is(start, "and")) return AND;
+                if (is(start, "fun")) return FUN;
+                if (is(start, "for")) return FOR;
+                if (is(start, "nil")) return NIL;
+                if (is(start, "var")) return VAR;
+                break;
+            case 4:
+                if (is(start, "else")) return ELSE;
+                if (is(start, "this")) return THIS;
+                if (is(start, "true")) return TRUE;
+                break;
+            case 5:
+                if (is(start, "class")) return CLASS;
+                if (is(start, "false")) return FALSE;
+                if (is(start, "print")) return PRINT;
+                if (is(start, "super")) return SUPER;
+                if (is(start, "while")) return WHILE;
+                break;
+            case 6:
+                if (is(start, "return")) return RETURN;
+                break;
+        }
+        return IDENTIFIER;
+    }
+
+    // the word is lowercase ASCII, or-ing 0x20 lowercases an ASCII letter of the source
+    private boolean is(int start, String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if ((source.charAt(start + i) | 0x20) != word.charAt(i)) return false;
+        }
+        return true;
     }
 }
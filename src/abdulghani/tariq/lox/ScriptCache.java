@@ -0,0 +1,91 @@
+package abdulghani.tariq.lox;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of compiled scripts keyed by their source text, the least recently used
+ * script is evicted once it is full. Shared by every engine of a {@link LoxScriptEngineFactory},
+ * so a host evaluating the same scripts again and again scans and parses each only once.
+ * The lock is held for lookups only, compiling happens outside of it, two threads missing on
+ * the same source may both compile it and the second result replaces the first.
+ */
+public final class ScriptCache {
+    private final int capacity;
+    private final Map<String, CompiledScript> scripts;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ScriptCache(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("Negative cache capacity " + capacity + ".");
+        this.capacity = capacity;
+        this.scripts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                if (size() <= ScriptCache.this.capacity) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @throws LoxException when the source doesn't compile, failures are not cached
+     */
+    CompiledScript compile(String source) {
+        CompiledScript script;
+        synchronized (scripts) {
+            script = scripts.get(source);
+        }
+        if (script != null) {
+            hits.increment();
+            return script;
+        }
+
+        misses.increment();
+        script = CompiledScript.compile(source);
+        if (capacity > 0) {
+            synchronized (scripts) {
+                scripts.put(source, script);
+            }
+        }
+        return script;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        synchronized (scripts) {
+            return scripts.size();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public void clear() {
+        synchronized (scripts) {
+            scripts.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptCache[size=" + size() + ", capacity=" + capacity + ", hits=" + hits()
+                + ", misses=" + misses() + ", evictions=" + evictions() + "]";
+    }
+}
@@ -0,0 +1,110 @@
+package abdulghani.tariq.lox;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A script submitted to a {@link ScriptScheduler} and its account of slices.
+ * A slice is one uninterrupted stretch of holding a scheduler slot, it ends when the
+ * script yields to a waiting script or finishes. The counters are written by the script's
+ * thread and can be read from any thread while it runs.
+ */
+public final class ScriptJob {
+    private final ExecutionContext context;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // written and read on the script's thread only
+    long sliceStart;
+
+    private volatile int slices = 0;
+    private volatile long runNanos = 0;
+    private volatile long waitNanos = 0;
+    private volatile long longestSliceNanos = 0;
+    private volatile long longestWaitNanos = 0;
+    private volatile LoxException error;
+
+    ScriptJob(ExecutionContext context) {
+        this.context = context;
+    }
+
+    void startSlice(long requested, long now) {
+        long waited = now - requested;
+        waitNanos += waited;
+        if (waited > longestWaitNanos) longestWaitNanos = waited;
+        slices++;
+        sliceStart = now;
+    }
+
+    void endSlice(long now) {
+        long ran = now - sliceStart;
+        runNanos += ran;
+        if (ran > longestSliceNanos) longestSliceNanos = ran;
+        sliceStart = now;
+    }
+
+    void finish(LoxException error) {
+        this.error = error;
+        done.countDown();
+    }
+
+    public ExecutionContext context() {
+        return context;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    /**
+     * @return false when the script is still running after the timeout
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * Why the script failed, null while it runs and after it succeeded.
+     */
+    public LoxException error() {
+        return error;
+    }
+
+    /**
+     * Slices the script ran in, one more than the number of times it yielded.
+     */
+    public int slices() {
+        return slices;
+    }
+
+    /**
+     * Wall time spent holding a slot, the script's share of the scheduler.
+     */
+    public long runNanos() {
+        return runNanos;
+    }
+
+    /**
+     * Wall time spent waiting for a slot, before starting and after yielding.
+     */
+    public long waitNanos() {
+        return waitNanos;
+    }
+
+    public long longestSliceNanos() {
+        return longestSliceNanos;
+    }
+
+    public long longestWaitNanos() {
+        return longestWaitNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptJob[slices=" + slices + ", runNanos=" + runNanos + ", waitNanos=" + waitNanos
+                + (isDone() ? ", done" : "") + (error != null ? ", failed" : "") + "]";
+    }
+}
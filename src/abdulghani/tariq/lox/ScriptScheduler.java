@@ -0,0 +1,141 @@
+package abdulghani.tariq.lox;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many compiled scripts at once, every script on its own thread, a virtual thread when
+ * the JVM has them (Java 21 and later) and a daemon platform thread otherwise.
+ * At most parallelism scripts run at a time, the others wait for a slot in FIFO order.
+ * A script that holds its slot longer than one slice hands it over at the next statement
+ * or loop back-edge when another script is waiting, see {@link YieldPoint}, so a
+ * script spinning in a loop delays the others by about a slice instead of starving them.
+ * Slices are measured in wall time spent holding a slot, every {@link ScriptJob} keeps its
+ * own account of them.
+ * Platform threads cost a stack each, without virtual threads tens of thousands of queued
+ * scripts need a lot of memory even though only parallelism of them run.
+ */
+public final class ScriptScheduler implements AutoCloseable {
+    static final long DEFAULT_SLICE_NANOS = 1_000_000;
+
+    // statements and back-edges between two reads of the clock
+    static final int CHECK_INTERVAL = 256;
+
+    private static final ThreadFactory VIRTUAL_THREADS = virtualThreads();
+
+    private final int parallelism;
+    private final long sliceNanos;
+    private final Semaphore slots;
+    private final ThreadFactory threads;
+    private final AtomicLong started = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * One slot per processor and 1 ms slices.
+     */
+    public ScriptScheduler() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_SLICE_NANOS);
+    }
+
+    public ScriptScheduler(int parallelism, long sliceNanos) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1.");
+        if (sliceNanos < 1) throw new IllegalArgumentException("Slices must be at least 1 ns.");
+        this.parallelism = parallelism;
+        this.sliceNanos = sliceNanos;
+        this.slots = new Semaphore(parallelism, true);
+        this.threads = VIRTUAL_THREADS != null ? VIRTUAL_THREADS : runnable -> {
+            Thread thread = new Thread(runnable, "lox-script-" + started.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Starts the script in the context, which must not be used by anyone else until the
+     * job is done.
+     *
+     * @throws IllegalStateException once the scheduler is closed
+     */
+    public ScriptJob submit(CompiledScript script, ExecutionContext context) {
+        if (closed) throw new IllegalStateException("ScriptScheduler is closed.");
+        ScriptJob job = new ScriptJob(context);
+        threads.newThread(() -> run(script, job)).start();
+        return job;
+    }
+
+    public boolean usesVirtualThreads() {
+        return VIRTUAL_THREADS != null;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    public long sliceNanos() {
+        return sliceNanos;
+    }
+
+    /**
+     * Scripts waiting for a slot, started ones and ones that yielded theirs.
+     */
+    public int waiting() {
+        return slots.getQueueLength();
+    }
+
+    /**
+     * Refuses new scripts, submitted ones still run to completion.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private void run(CompiledScript script, ScriptJob job) {
+        acquire(job);
+        LoxException error = null;
+        try {
+            script.run(job.context(), () -> {
+                long now = System.nanoTime();
+                if (now - job.sliceStart >= sliceNanos && slots.hasQueuedThreads()) {
+                    job.endSlice(now);
+                    slots.release();
+                    acquire(job);
+                }
+                return CHECK_INTERVAL;
+            });
+        } catch (LoxException e) {
+            error = e;
+        } catch (RuntimeException | Error e) {
+            // interpreter bugs and errors like OutOfMemoryError fail the job rather than its thread,
+            // a job that never finishes would leave await blocked forever
+            error = new LoxException(e.toString(), List.of(e.toString()));
+            error.initCause(e);
+        } finally {
+            job.endSlice(System.nanoTime());
+            slots.release();
+            // last, a caller returning from await sees the final slice and a free slot
+            job.finish(error);
+        }
+    }
+
+    private void acquire(ScriptJob job) {
+        long requested = System.nanoTime();
+        slots.acquireUninterruptibly();
+        job.startSlice(requested, System.nanoTime());
+    }
+
+    // Thread.ofVirtual().name("lox-script-", 0).factory() through reflection, this compiles for 17
+    private static ThreadFactory virtualThreads() {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+            virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, "lox-script-", 0L);
+            return (ThreadFactory) builder.getMethod("factory").invoke(virtual);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // older JVM, or virtual threads still a preview feature that isn't enabled
+            return null;
+        }
+    }
+}
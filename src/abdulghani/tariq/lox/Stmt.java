@@ -2,17 +2,16 @@ package abdulghani.tariq.lox;
 
 import java.beans.Expression;
 import java.util.List;
-import java.util.function.Function;
 
 abstract class Stmt {
     interface Visitor<R> {
         R visitBlockStmt(Block stmt);
 //        R visitClassStmt(Class stmt);
         R visitExpressionStmt(Expression stmt);
-//        R visitFunctionStmt(Function stmt);
+        R visitFunctionStmt(Function stmt);
         R visitIfStmt(If stmt);
         R visitPrintStmt(Print stmt);
-//        R visitReturnStmt(Return stmt);
+        R visitReturnStmt(Return stmt);
         R visitVarStmt(Var stmt);
         R visitWhileStmt(While stmt);
     }
@@ -21,6 +20,11 @@ abstract class Stmt {
 
     abstract <R> R accept(Visitor<R> visitor);
 
+    // line the statement starts on, set by the Parser, the profiler reports by line
+    int line = 0;
+
+    static final int[] NONE = new int[0];
+
 
     static class Expression extends Stmt {
         Expression(Expr expression) {
@@ -61,6 +65,56 @@ abstract class Stmt {
 
         final Token name;
         final Expr initializer;
+
+        // filled by Resolver, -1 means a global variable, cell that it is captured and
+        // assigned so its slot holds a Cell
+        int slot = -1;
+        boolean cell = false;
+    }
+
+    static class Function extends Stmt {
+        Function(Token name, List<Token> params, List<Stmt> body) {
+            this.name = name;
+            this.params = params;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitFunctionStmt(this);
+        }
+
+        final Token name;
+        final List<Token> params;
+        final List<Stmt> body;
+
+        // filled by Resolver, slot -1 means a global function, slotCount sizes the
+        // frame of a call: the parameters first, then the body's own variables
+        int slot = -1;
+        int slotCount = 0;
+        boolean cell = false;
+
+        // closure conversion, also by Resolver: capture i is copied from the slot
+        // (captureDepths[i], captureSlots[i]) of the declaring scope when the function is
+        // declared, cellParams are the parameters moved into a Cell on every call
+        int[] captureDepths = NONE;
+        int[] captureSlots = NONE;
+        int[] cellParams = NONE;
+    }
+
+    static class Return extends Stmt {
+        Return(Token keyword, Expr value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitReturnStmt(this);
+        }
+
+        final Token keyword;
+        final Expr value; // null for a bare return
     }
 
     static class Block extends Stmt {
@@ -74,6 +128,9 @@ abstract class Stmt {
         }
 
         final List<Stmt> statements;
+
+        // filled by Resolver, number of variables declared directly in the block
+        int slotCount = 0;
     }
 
     static  class If extends Stmt{
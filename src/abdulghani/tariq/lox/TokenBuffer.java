@@ -0,0 +1,114 @@
+package abdulghani.tariq.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tokens of one source stored as parallel arrays of offsets into the source.
+ * Nothing is copied while scanning, lexemes and literal values are built only when
+ * the parser asks for them and Token objects only for tokens that end up in the AST.
+ */
+class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final String[] FIXED_LEXEMES = new String[TYPES.length];
+
+    static {
+        String[][] fixed = {
+                {"LEFT_PAREN", "("}, {"RIGHT_PAREN", ")"}, {"LEFT_BRACE", "{"}, {"RIGHT_BRACE", "}"},
+                {"COMMA", ","}, {"DOT", "."}, {"MINUS", "-"}, {"PLUS", "+"}, {"SEMICOLON", ";"},
+                {"SLASH", "/"}, {"STAR", "*"}, {"BANG", "!"}, {"BANG_EQUAL", "!="}, {"EQUAL", "="},
+                {"EQUAL_EQUAL", "=="}, {"GREATER", ">"}, {"GREATER_EQUAL", ">="}, {"LESS", "<"},
+                {"LESS_EQUAL", "<="}, {"EOF", ""},
+        };
+        for (String[] entry : fixed) {
+            FIXED_LEXEMES[TokenType.valueOf(entry[0]).ordinal()] = entry[1];
+        }
+    }
+
+    private final CharSequence source;
+    private int[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int count = 0;
+
+    TokenBuffer(CharSequence source) {
+        this.source = source;
+        // generated scripts average a token every three to four chars
+        int capacity = Math.max(16, source.length() / 3);
+        types = new int[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+    }
+
+    void add(TokenType type, int start, int length, int line) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        types[count] = type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    String lexeme(int index) {
+        String fixed = FIXED_LEXEMES[types[index]];
+        if (fixed != null) return fixed;
+        return source.subSequence(starts[index], starts[index] + lengths[index]).toString();
+    }
+
+    /**
+     * Same literal values the Scanner used to store in every Token.
+     */
+    Object literal(int index) {
+        return literal(index, null);
+    }
+
+    private Object literal(int index, String lexeme) {
+        switch (type(index)) {
+            case NUMBER:
+                return Double.parseDouble(lexeme != null ? lexeme : lexeme(index));
+            case STRING:
+                // Trim the surrounding quotes.
+                return source.subSequence(starts[index] + 1, starts[index] + lengths[index] - 1).toString();
+            case IDENTIFIER:
+            case AND: case CLASS: case ELSE: case FALSE: case FUN: case FOR: case IF: case NIL: case OR:
+            case PRINT: case RETURN: case SUPER: case THIS: case TRUE: case VAR: case WHILE:
+                return lexeme != null ? lexeme : lexeme(index);
+            default:
+                return null;
+        }
+    }
+
+    Token token(int index) {
+        String lexeme = lexeme(index);
+        return new Token(type(index), lexeme, literal(index, lexeme), lines[index]);
+    }
+
+    List<Token> toList() {
+        List<Token> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add(token(i));
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,159 @@
+package abdulghani.tariq.lox;
+
+import static abdulghani.tariq.lox.OpCode.*;
+
+/**
+ * Stack based virtual machine running chunks produced by the {@link Compiler}.
+ * Alternative to the tree walking {@link Interpreter}, selected with --vm,
+ * both must print exactly the same output for the same program.
+ */
+class VM {
+    // kept across runs so the REPL sees globals defined by previous lines, shared with the
+    // Interpreter that runs the programs the Compiler can't handle
+    private final Environment globals;
+    private final OutputSink out;
+
+    VM(OutputSink out, Environment globals) {
+        this.out = out;
+        this.globals = globals;
+    }
+
+    void interpret(Chunk chunk) {
+        try {
+            run(chunk);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    private void run(Chunk chunk) {
+        final byte[] code = chunk.code;
+        final Object[] constants = chunk.constants.toArray();
+        final Object[] locals = new Object[chunk.maxLocals];
+        final Object[] stack = new Object[chunk.maxStack];
+        int sp = 0; // next free stack slot
+        int ip = 0;
+
+        for (;;) {
+            byte instruction = code[ip++];
+            switch (instruction) {
+                case CONSTANT:
+                    stack[sp++] = constants[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case NIL: stack[sp++] = null; break;
+                case TRUE: stack[sp++] = true; break;
+                case FALSE: stack[sp++] = false; break;
+                case POP: sp--; break;
+
+                case GET_LOCAL:
+                    stack[sp++] = locals[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case SET_LOCAL:
+                    locals[readShort(code, ip)] = stack[sp - 1];
+                    ip += 2;
+                    break;
+                case GET_GLOBAL:
+                    stack[sp++] = globals.get((Token) constants[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case DEFINE_GLOBAL:
+                    globals.define(((Token) constants[readShort(code, ip)]).lexeme, stack[--sp]);
+                    ip += 2;
+                    break;
+                case SET_GLOBAL:
+                    globals.assign((Token) constants[readShort(code, ip)], stack[sp - 1]);
+                    ip += 2;
+                    break;
+
+                case EQUAL: {
+                    Object b = stack[--sp];
+                    stack[sp - 1] = Values.isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case NOT_EQUAL: {
+                    Object b = stack[--sp];
+                    stack[sp - 1] = !Values.isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case GREATER: {
+                    double b = (double) stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] > b;
+                    break;
+                }
+                case GREATER_EQUAL: {
+                    double b = (double) stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] >= b;
+                    break;
+                }
+                case LESS: {
+                    double b = (double) stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] < b;
+                    break;
+                }
+                case LESS_EQUAL: {
+                    double b = (double) stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] <= b;
+                    break;
+                }
+                case ADD: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    if (a instanceof Double && b instanceof Double) {
+                        stack[sp - 1] = (double) a + (double) b;
+                    } else if (Values.isString(a) && Values.isString(b)) {
+                        stack[sp - 1] = LoxString.concat(a, b);
+                    } else {
+                        stack[sp - 1] = null; // same as Interpreter for mixed operands
+                    }
+                    break;
+                }
+                case SUBTRACT: {
+                    double b = (double) stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] - b;
+                    break;
+                }
+                case MULTIPLY: {
+                    double b = (double) stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] * b;
+                    break;
+                }
+                case DIVIDE: {
+                    double b = (double) stack[--sp];
+                    stack[sp - 1] = (double) stack[sp - 1] / b;
+                    break;
+                }
+                case NOT:
+                    stack[sp - 1] = !Values.isTruthy(stack[sp - 1]);
+                    break;
+                case NEGATE:
+                    stack[sp - 1] = -(double) stack[sp - 1];
+                    break;
+
+                case PRINT:
+                    out.println(Values.stringify(stack[--sp]));
+                    break;
+                case JUMP:
+                    ip += readShort(code, ip) + 2;
+                    break;
+                case JUMP_IF_FALSE:
+                    if (!Values.isTruthy(stack[sp - 1])) {
+                        ip += readShort(code, ip);
+                    }
+                    ip += 2;
+                    break;
+                case LOOP:
+                    ip += 2;
+                    ip -= readShort(code, ip - 2);
+                    break;
+                case RETURN:
+                    return;
+            }
+        }
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+}
@@ -0,0 +1,66 @@
+package abdulghani.tariq.lox;
+
+/**
+ * Runtime semantics of Lox values shared by every execution engine,
+ * keeping them in one place is what makes the engines print the same output.
+ */
+final class Values {
+
+    private Values() {
+    }
+
+    static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    /**
+     * Strings are either java Strings from literals or ropes built by concatenation.
+     */
+    static boolean isString(Object object) {
+        return object instanceof String || object instanceof LoxString;
+    }
+
+    static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+        if (isString(a) && isString(b)) return a.toString().equals(b.toString());
+
+        return a.equals(b);
+    }
+
+    static String stringify(Object object) {
+        if (object == null) return "nil";
+
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+
+        return object.toString();
+    }
+
+    /**
+     * Java value of an embedding host as a Lox value.
+     * Functions a previous run handed out through {@link #toJava} go back unchanged.
+     */
+    static Object toLox(Object value) {
+        if (value == null || value instanceof Boolean || value instanceof Double) return value;
+        if (value instanceof LoxCallable) return value;
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value instanceof CharSequence) return value.toString();
+        throw new IllegalArgumentException("Lox has no value for " + value.getClass().getName() + ".");
+    }
+
+    /**
+     * Lox value as handed to an embedding host, strings built by concatenation become Strings.
+     * Functions are handed out as they are, opaque to the host.
+     */
+    static Object toJava(Object value) {
+        return value instanceof LoxString ? value.toString() : value;
+    }
+}
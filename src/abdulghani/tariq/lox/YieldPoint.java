@@ -0,0 +1,14 @@
+package abdulghani.tariq.lox;
+
+/**
+ * Called by the {@link Interpreter} between statements and at loop back-edges, every so often
+ * rather than every time: the interpreter counts down and calls {@link #reached()} when it hits zero.
+ * A long running script can give up its thread here, nothing else happens between two
+ * statements, so the interpreter state is consistent when it does.
+ */
+interface YieldPoint {
+    /**
+     * @return statements and back-edges until the next call, at least 1
+     */
+    int reached();
+}
@@ -0,0 +1,93 @@
+package abdulghani.tariq.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AstCacheTest {
+    // closures, cells, calls and every literal kind, so every tag and resolver field is written
+    private static final String SCRIPT = String.join("\n",
+            "var greeting = \"hi\";",
+            "fun counter() {",
+            "  var count = 0;",
+            "  fun next() { count = count + 1; return count; }",
+            "  return next;",
+            "}",
+            "var c = counter();",
+            "c(); c();",
+            "{ var done = true; if (done and !false) print c(); else print nil; }",
+            "var i = 0;",
+            "while (i < 2) { print greeting + \" \" + (i * -1.5); i = i + 1; }",
+            "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }",
+            "print fib(10) or false;");
+
+    @TempDir
+    Path directory;
+
+    private static List<Stmt> frontEnd(String source) {
+        List<Stmt> statements = CompiledScript.frontEnd(source, new ParserTest.Errors(), null);
+        assertNotNull(statements);
+        return statements;
+    }
+
+    private static String run(List<Stmt> statements) {
+        StringWriter out = new StringWriter();
+        new ExecutionContext(out).execute(statements, null);
+        return out.toString();
+    }
+
+    private AstCache store() throws IOException {
+        Path script = Files.writeString(directory.resolve("script.lox"), SCRIPT);
+        AstCache cache = AstCache.forScript(script);
+        assertNotNull(cache);
+        assertNull(cache.load());
+        cache.store(frontEnd(SCRIPT));
+        return cache;
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        List<Stmt> loaded = store().load();
+
+        assertNotNull(loaded);
+        assertEquals(TreeDump.of(frontEnd(SCRIPT)), TreeDump.of(loaded));
+        assertEquals(run(frontEnd(SCRIPT)), run(loaded));
+    }
+
+    @Test
+    void changedScriptMisses() throws IOException {
+        store();
+        Path script = Files.writeString(directory.resolve("script.lox"), SCRIPT + "\nprint 1;");
+
+        assertNull(AstCache.forScript(script).load());
+    }
+
+    // every truncation of the file, and a garbled body, loads as a miss rather than failing
+    @Test
+    void damagedFileMisses() throws IOException {
+        AstCache cache = store();
+        byte[] bytes = Files.readAllBytes(cache.file());
+
+        for (int length = 0; length < bytes.length; length++) {
+            Files.write(cache.file(), Arrays.copyOf(bytes, length));
+            assertNull(cache.load(), "truncated to " + length);
+        }
+
+        // magic, format version, build fingerprint and script hash take 72 bytes
+        byte[] garbled = bytes.clone();
+        for (int i = 72; i < garbled.length; i++) {
+            garbled[i] = (byte) 0xff;
+        }
+        Files.write(cache.file(), garbled);
+        assertNull(cache.load());
+    }
+}
@@ -0,0 +1,66 @@
+package abdulghani.tariq.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.StringWriter;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+class LoxScriptEngineTest {
+
+    private static ScriptEngine engine(StringWriter out) {
+        ScriptEngine engine = new LoxScriptEngineFactory().getScriptEngine();
+        engine.getContext().setWriter(out);
+        return engine;
+    }
+
+    // every eval writes the globals back to the engine scope and the next one defines them again
+    @Test
+    void secondEvalSeesGlobalsOfTheFirst() throws ScriptException {
+        StringWriter out = new StringWriter();
+        ScriptEngine engine = engine(out);
+
+        engine.eval("var x = 20; fun twice(n) { return n * 2; }");
+        engine.eval("x = twice(x) + 2; print x;");
+
+        assertEquals(42.0, engine.get("x"));
+        assertEquals("42" + System.lineSeparator(), out.toString());
+    }
+
+    @Test
+    void nativesStayOutOfTheBindings() throws ScriptException {
+        ScriptEngine engine = engine(new StringWriter());
+
+        engine.eval("var start = clock();");
+        engine.eval("print clock() >= start;");
+
+        assertFalse(engine.getBindings(javax.script.ScriptContext.ENGINE_SCOPE).containsKey("clock"));
+    }
+
+    @Test
+    void invokeFunctionCallsAGlobalFunction() throws Exception {
+        StringWriter out = new StringWriter();
+        ScriptEngine engine = engine(out);
+        engine.eval("var calls = 0; fun greet(name, n) { calls = calls + 1; print name; return n + 1; }");
+
+        assertEquals(42.0, ((Invocable) engine).invokeFunction("greet", "lox", 41));
+        assertEquals(1.0, engine.get("calls"));
+        assertEquals("lox" + System.lineSeparator(), out.toString());
+    }
+
+    @Test
+    void invokeFunctionFailures() throws ScriptException {
+        ScriptEngine engine = engine(new StringWriter());
+        engine.eval("var number = 1; fun one(a) { return a; } fun broken() { return missing; }");
+        Invocable invocable = (Invocable) engine;
+
+        assertThrows(NoSuchMethodException.class, () -> invocable.invokeFunction("unbound"));
+        assertThrows(NoSuchMethodException.class, () -> invocable.invokeFunction("number"));
+        assertThrows(ScriptException.class, () -> invocable.invokeFunction("one"));
+        assertThrows(ScriptException.class, () -> invocable.invokeFunction("broken"));
+    }
+}
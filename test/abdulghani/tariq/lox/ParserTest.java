@@ -0,0 +1,88 @@
+package abdulghani.tariq.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+// the Pratt parser has to build the same trees the recursive descent grammar did
+class ParserTest {
+
+    static final class Errors implements ErrorReporter {
+        final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void report(int line, String where, String message) {
+            messages.add(ErrorReporter.format(line, where, message));
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+            throw error;
+        }
+
+        @Override
+        public boolean hadError() {
+            return !messages.isEmpty();
+        }
+    }
+
+    private static String parse(String source) {
+        Errors errors = new Errors();
+        List<Stmt> statements = new Parser(new Scanner(source, errors).scan(), errors).parse();
+        assertEquals(List.of(), errors.messages, source);
+        return TreeDump.of(statements).trim();
+    }
+
+    private static List<String> errors(String source) {
+        Errors errors = new Errors();
+        new Parser(new Scanner(source, errors).scan(), errors).parse();
+        return errors.messages;
+    }
+
+    @Test
+    void precedence() {
+        assertEquals("(print (- (+ 1.0 (* 2.0 3.0)) (/ 4.0 2.0)))", parse("print 1 + 2 * 3 - 4 / 2;"));
+        assertEquals("(print (!= (>= a b) (<= c d)))", parse("print a >= b != c <= d;"));
+        assertEquals("(print (== (! (- x)) (< y z)))", parse("print !-x == y < z;"));
+        assertEquals("(print (* (group (+ 1.0 2.0)) (- 3.0)))", parse("print (1 + 2) * -3;"));
+    }
+
+    @Test
+    void associativity() {
+        assertEquals("(print (- (- 1.0 2.0) 3.0))", parse("print 1 - 2 - 3;"));
+        assertEquals("(; (= a (= b c)))", parse("a = b = c;"));
+        assertEquals("(print (or (or a (and b c)) d))", parse("print a or b and c or d;"));
+    }
+
+    @Test
+    void calls() {
+        assertEquals("(; (call (call f 1.0) 2.0 (call g 3.0)))", parse("f(1)(2, g(3));"));
+        assertEquals("(fun f/0 (a b ) captures [][] cells [] (return (+ a b)))",
+                parse("fun f(a, b) { return a + b; }"));
+    }
+
+    @Test
+    void statements() {
+        assertEquals("(var x 1.0)\n(block/0 (var y x) (; (= y 2.0)))", parse("var x = 1; { var y = x; y = 2; }"));
+        assertEquals("(while (< i 3.0) (; (= i (+ i 1.0))))", parse("while (i < 3) i = i + 1;"));
+        assertEquals("(if a (print 1.0) (print 2.0))", parse("if (a) print 1; else print 2;"));
+    }
+
+    @Test
+    void errors() {
+        assertEquals(List.of("[line 1] Error at '=': Invalid assignment target."), errors("1 = 2;"));
+        assertEquals(List.of("[line 1] Error at ';': Expect expression."), errors("print 1 +;"));
+        assertEquals(List.of("[line 1] Error at ';': Expect ')' after arguments."), errors("f(1;"));
+    }
+
+    // a scan error doesn't hide the parse errors of the same source
+    @Test
+    void parseErrorsAfterScanErrors() {
+        assertEquals(List.of(
+                "[line 1] Error: invalid input",
+                "[line 1] Error at '=': Expect variable name.",
+                "[line 1] Error at ';': Expect expression."), errors("var @ = 1; print ;"));
+    }
+}
@@ -0,0 +1,75 @@
+package abdulghani.tariq.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ScriptSchedulerTest {
+    // one slot, so a job that leaked its slot would keep the next one waiting
+    private final ScriptScheduler scheduler = new ScriptScheduler(1, TimeUnit.MILLISECONDS.toNanos(1));
+
+    @AfterEach
+    void close() {
+        scheduler.close();
+    }
+
+    private static void awaitDone(ScriptJob job) throws InterruptedException {
+        assertTrue(job.await(10, TimeUnit.SECONDS), "job never finished");
+        assertTrue(job.isDone());
+    }
+
+    // the slot of a failed job goes to the next one
+    private void nextJobRuns() throws InterruptedException {
+        StringWriter out = new StringWriter();
+        ScriptJob job = scheduler.submit(CompiledScript.compile("print 1 + 1;"), new ExecutionContext(out));
+
+        awaitDone(job);
+        assertNull(job.error());
+        assertEquals("2" + System.lineSeparator(), out.toString());
+    }
+
+    @Test
+    void runtimeErrorFailsTheJob() throws InterruptedException {
+        ScriptJob job = scheduler.submit(CompiledScript.compile("print 1; undefined;"),
+                new ExecutionContext(new StringWriter()));
+
+        awaitDone(job);
+        assertNotNull(job.error());
+        assertEquals("Undefined variable 'undefined'.", job.error().getMessage());
+        nextJobRuns();
+    }
+
+    @Test
+    void errorFailsTheJob() throws InterruptedException {
+        Writer broken = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+                throw new AssertionError("broken writer");
+            }
+
+            @Override
+            public void flush() {
+                throw new AssertionError("broken writer");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ScriptJob job = scheduler.submit(CompiledScript.compile("var i = 0; while (i < 10000) { print i; i = i + 1; }"),
+                new ExecutionContext(broken));
+
+        awaitDone(job);
+        assertNotNull(job.error());
+        assertInstanceOf(AssertionError.class, job.error().getCause());
+        nextJobRuns();
+    }
+}
@@ -0,0 +1,141 @@
+package abdulghani.tariq.lox;
+
+import java.util.List;
+
+/**
+ * Renders a tree as an S-expression with every field, resolver slots included,
+ * so two trees are equal exactly when their dumps are.
+ */
+final class TreeDump implements Expr.Visitor<String>, Stmt.Visitor<String> {
+    private static final TreeDump INSTANCE = new TreeDump();
+
+    static String of(List<Stmt> statements) {
+        StringBuilder builder = new StringBuilder();
+        for (Stmt statement : statements) {
+            builder.append(INSTANCE.dump(statement)).append('\n');
+        }
+        return builder.toString();
+    }
+
+    static String of(Expr expr) {
+        return INSTANCE.dump(expr);
+    }
+
+    private String dump(Stmt stmt) {
+        return stmt == null ? "null" : stmt.accept(this);
+    }
+
+    private String dump(Expr expr) {
+        return expr == null ? "null" : expr.accept(this);
+    }
+
+    private String all(List<Stmt> statements) {
+        StringBuilder builder = new StringBuilder();
+        for (Stmt statement : statements) {
+            builder.append(' ').append(dump(statement));
+        }
+        return builder.toString();
+    }
+
+    private static String slot(int depth, int slot, boolean cell) {
+        return depth < 0 ? "" : "@" + depth + ":" + slot + (cell ? "!" : "");
+    }
+
+    private static String ints(int[] values) {
+        return java.util.Arrays.toString(values);
+    }
+
+    @Override
+    public String visitAssignExpr(Expr.Assign expr) {
+        return "(= " + expr.name.lexeme + slot(expr.depth, expr.slot, expr.cell) + " " + dump(expr.value) + ")";
+    }
+
+    @Override
+    public String visitBinaryExpr(Expr.Binary expr) {
+        return "(" + expr.operator.lexeme + " " + dump(expr.left) + " " + dump(expr.right) + ")";
+    }
+
+    @Override
+    public String visitGroupingExpr(Expr.Grouping expr) {
+        return "(group " + dump(expr.expression) + ")";
+    }
+
+    @Override
+    public String visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof String) return "\"" + expr.value + "\"";
+        return String.valueOf(expr.value);
+    }
+
+    @Override
+    public String visitLogicalExpr(Expr.Logical expr) {
+        return "(" + expr.operator.lexeme + " " + dump(expr.left) + " " + dump(expr.right) + ")";
+    }
+
+    @Override
+    public String visitUnaryExpr(Expr.Unary expr) {
+        return "(" + expr.operator.lexeme + " " + dump(expr.right) + ")";
+    }
+
+    @Override
+    public String visitCallExpr(Expr.Call expr) {
+        StringBuilder builder = new StringBuilder("(call ").append(dump(expr.callee));
+        for (Expr argument : expr.arguments) {
+            builder.append(' ').append(dump(argument));
+        }
+        return builder.append(')').toString();
+    }
+
+    @Override
+    public String visitVariableExpr(Expr.Variable expr) {
+        return expr.name.lexeme + slot(expr.depth, expr.slot, expr.cell);
+    }
+
+    @Override
+    public String visitBlockStmt(Stmt.Block stmt) {
+        return "(block/" + stmt.slotCount + all(stmt.statements) + ")";
+    }
+
+    @Override
+    public String visitExpressionStmt(Stmt.Expression stmt) {
+        return "(; " + dump(stmt.expression) + ")";
+    }
+
+    @Override
+    public String visitFunctionStmt(Stmt.Function stmt) {
+        StringBuilder builder = new StringBuilder("(fun ").append(stmt.name.lexeme)
+                .append(slot(stmt.slot < 0 ? -1 : 0, stmt.slot, stmt.cell))
+                .append('/').append(stmt.slotCount).append(" (");
+        for (Token param : stmt.params) {
+            builder.append(param.lexeme).append(' ');
+        }
+        builder.append(") captures ").append(ints(stmt.captureDepths)).append(ints(stmt.captureSlots))
+                .append(" cells ").append(ints(stmt.cellParams));
+        return builder.append(all(stmt.body)).append(')').toString();
+    }
+
+    @Override
+    public String visitIfStmt(Stmt.If stmt) {
+        return "(if " + dump(stmt.condition) + " " + dump(stmt.thenBranch) + " " + dump(stmt.elseBranch) + ")";
+    }
+
+    @Override
+    public String visitPrintStmt(Stmt.Print stmt) {
+        return "(print " + dump(stmt.expression) + ")";
+    }
+
+    @Override
+    public String visitReturnStmt(Stmt.Return stmt) {
+        return "(return " + dump(stmt.value) + ")";
+    }
+
+    @Override
+    public String visitVarStmt(Stmt.Var stmt) {
+        return "(var " + stmt.name.lexeme + slot(stmt.slot < 0 ? -1 : 0, stmt.slot, stmt.cell)
+                + " " + dump(stmt.initializer) + ")";
+    }
+
+    @Override
+    public String visitWhileStmt(Stmt.While stmt) {
+        return "(while " + dump(stmt.condition) + " " + dump(stmt.body) + ")";
+    }
+}